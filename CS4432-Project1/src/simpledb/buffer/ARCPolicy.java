@@ -0,0 +1,121 @@
+package simpledb.buffer;
+
+/**
+ * The Adaptive Replacement Cache policy (Megiddo and Modha).
+ * The blocks in the pool are split between the LRU list T1,
+ * of blocks referenced once since they entered the pool, and the LRU list T2,
+ * of blocks referenced at least twice.
+ * The ids of blocks evicted from T1 and T2 are remembered in the ghost lists B1 and B2.
+ * The target size p of T1 adapts to the workload:
+ * a request for a block in B1 means T1 was too small, and increases p;
+ * a request for a block in B2 decreases it.
+ * A scan therefore only ever displaces blocks of T1.
+ * <p>
+ * The algorithm of the paper is restructured to fit the buffer manager,
+ * which asks for a victim before it says which block the frame will hold.
+ * This makes it differ from the published ARC in these ways:
+ * <ul>
+ * <li>The victim is chosen with the value of p from before the request,
+ * and without the paper's tie-break (evicting from T1 when |T1| equals p
+ * and the requested block is in B2); p is adapted afterwards,
+ * when the block is admitted.
+ * <li>When the requested block is in neither ghost list, the victim
+ * is always remembered in B1 or B2, and the oldest ghost is then dropped
+ * to keep the lists within their bounds. The paper instead drops the
+ * victim outright when T1 fills the whole cache.
+ * <li>The adaptation steps of p are computed with integer division.
+ * <li>The victim is the least recently used <i>unpinned</i> buffer
+ * of its list; if every buffer of that list is pinned, it comes from the other list.
+ * <li>Every pin that finds its block in the pool counts as a
+ * re-reference, so the repeated pins of a single operation
+ * are enough to move a block into T2.
+ * <li>Buffers whose file is discarded leave T1 and T2 without being
+ * remembered in B1 or B2.
+ * </ul>
+ */
+class ARCPolicy implements ReplacementPolicy {
+   private Buffer[] pool;
+   private int c, p = 0;
+   private FrameList t1, t2;
+   private GhostList b1, b2;
+
+   /**
+    * Creates the policy for the specified pool.
+    * @param pool the buffers of the pool
+    */
+   ARCPolicy(Buffer[] pool) {
+      this.pool = pool;
+      c = pool.length;
+      t1 = new FrameList(c);
+      t2 = new FrameList(c);
+      b1 = new GhostList(c);
+      b2 = new GhostList(c);
+   }
+
+   public void pin(Buffer buff, boolean hit) {
+      int pos = buff.getPosition();
+      if (hit && (t1.contains(pos) || t2.contains(pos))) {
+         t1.remove(pos);
+         t2.remove(pos);
+         t2.addLast(pos);
+      }
+   }
+
+   public void admit(Buffer buff) {
+      int pos = buff.getPosition();
+      long id = buff.block().id();
+      if (b1.contains(id)) {
+         p = Math.min(c, p + Math.max(b2.size() / b1.size(), 1));
+         b1.remove(id);
+         t2.addLast(pos);
+      }
+      else if (b2.contains(id)) {
+         p = Math.max(0, p - Math.max(b1.size() / b2.size(), 1));
+         b2.remove(id);
+         t2.addLast(pos);
+      }
+      else {
+         if (t1.size() + b1.size() >= c)
+            b1.removeOldest();
+         else if (t1.size() + t2.size() + b1.size() + b2.size() >= 2 * c)
+            b2.removeOldest();
+         t1.addLast(pos);
+      }
+   }
+
+   public void unpin(Buffer buff) {
+   }
+
+   public Buffer victim() {
+      boolean fromT1 = t1.size() > 0 && t1.size() > p;
+      int pos = firstUnpinned(fromT1 ? t1 : t2);
+      if (pos < 0) {
+         fromT1 = !fromT1;
+         pos = firstUnpinned(fromT1 ? t1 : t2);
+         if (pos < 0)
+            return null;
+      }
+      long id = pool[pos].block().id();
+      if (fromT1) {
+         t1.remove(pos);
+         b1.add(id, 0);
+      }
+      else {
+         t2.remove(pos);
+         b2.add(id, 0);
+      }
+      return pool[pos];
+   }
+
+   public void discard(Buffer buff) {
+      t1.remove(buff.getPosition());
+      t2.remove(buff.getPosition());
+   }
+
+   private int firstUnpinned(FrameList list) {
+      int pos = list.first();
+      while (pos >= 0 && pool[pos].isPinned())
+         pos = list.next(pos);
+      return pos;
+   }
+}
@@ -1,8 +1,15 @@
 package simpledb.buffer;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
 
 import simpledb.file.*;
 
@@ -12,13 +19,31 @@ import simpledb.file.*;
  *
  */
 class BasicBufferMgr {
+   private static final Comparator<Buffer> BLOCK_ORDER = new Comparator<Buffer>() {
+      public int compare(Buffer b1, Buffer b2) {
+         int c = b1.block().fileName().compareTo(b2.block().fileName());
+         return (c != 0) ? c : Integer.compare(b1.block().number(), b2.block().number());
+      }
+   };
    private Buffer[] bufferpool;
+   private int target; // the number of buffers that the shard is shrinking to, if it has more
    private int numAvailable;
    // CS4432-Project1
-   private HashMap<Integer, Integer> poolMap; // hashmap to store info about pages in the buffer pool
+   private PageTable poolMap; // page table mapping the blocks in the buffer pool to their positions
    private int clockPosition; // int position into the array the Clock-Replacement algorithm will run along
    private int rpolicy; // Stores the selected replacement policy chosen when the db is started
    private List<Integer> emptyFrames; // stores an index of empty frames
+   // LRU recency list of the unpinned, non-empty buffers, least recently used first
+   private Buffer lruHead, lruTail;
+   private ReplacementPolicy policy; // the 2Q, LRU-2, or ARC policy, if one of those is selected
+   private BufferWriter writer; // the background writer, if there is one
+   private BufferStats stats = new BufferStats();
+   private int index; // the position of this shard in the buffer manager
+   private boolean simulated; // true if the buffers have no pages
+   private ArrayDeque<Thread> waiters = new ArrayDeque<Thread>(); // threads waiting for buffers, oldest first
+   // the buffers modified by each active transaction; not guarded by the shard's lock,
+   // since a buffer reports its modifications while holding its own monitor
+   private ConcurrentHashMap<Integer, Set<Buffer>> dirtyFrames = new ConcurrentHashMap<Integer, Set<Buffer>>();
    /**
     * Creates a buffer manager having the specified number 
     * of buffer slots.
@@ -31,101 +56,664 @@ class BasicBufferMgr {
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
     * @param numbuffs the number of buffer slots to allocate
+    * @param rpolicy the replacement policy: 1 - Default, 2 - LRU,
+    * 3 - Clock, 4 - 2Q, 5 - LRU-2, 6 - ARC
+    * @param index the position of the shard in the buffer manager
+    */
+   BasicBufferMgr(int numbuffs, int rpolicy, int index) {
+      this(numbuffs, rpolicy, index, false);
+   }
+   
+   /**
+    * Creates a buffer manager having the specified number of buffer slots,
+    * which is only simulated if so specified.
+    * The buffers of a simulated manager have no pages: blocks
+    * are assigned to them, and replaced according to the replacement
+    * policy, without being read or written,
+    * and the manager does not depend on any other part of the system.
+    * @see TraceSimulator
+    * @param numbuffs the number of buffer slots to allocate
+    * @param rpolicy the replacement policy
+    * @param index the position of the shard in the buffer manager
+    * @param simulated true if the manager is only simulated
     */
-   BasicBufferMgr(int numbuffs, int rpolicy) {
+   BasicBufferMgr(int numbuffs, int rpolicy, int index, boolean simulated) {
+      this.index = index;
+      this.simulated = simulated;
 	  this.rpolicy = rpolicy; /** CS4432-Project1 **/ //Dictates what replacement policy to use. 
       bufferpool = new Buffer[numbuffs];
+      target = numbuffs;
       numAvailable = numbuffs;
-      poolMap = new HashMap<Integer, Integer>();
+      poolMap = new PageTable(numbuffs);
       clockPosition = 0; // CS4432-Project1 - Initialize the position in the array that will be looked at first when evicting
       emptyFrames = new ArrayList<Integer>(); // CS4432-Project1 - Initialize instance of empty frame index
       for (int i=0; i<numbuffs; i++){
-    	 Buffer newBuff = new Buffer();
+    	 Buffer newBuff = newBuffer();
+    	 newBuff.shard = this;
     	 newBuff.setPosition(i);
          bufferpool[i] = newBuff;
          emptyFrames.add(i); // add all frames to index of empty frames
       }
+      policy = newPolicy();
+   }
+   
+   /**
+    * Creates a buffer for the pool, which has a page
+    * unless the pool is only simulated.
+    * @return the new buffer
+    */
+   private Buffer newBuffer() {
+      return simulated ? new Buffer(true) : new Buffer();
+   }
+   
+   /**
+    * Creates the 2Q, LRU-2, or ARC policy for the current buffer pool,
+    * if one of those is selected.
+    * @return the new policy, or null
+    */
+   private ReplacementPolicy newPolicy() {
+      if (rpolicy == 4)
+         return new TwoQPolicy(bufferpool);
+      else if (rpolicy == 5)
+         return new LRU2Policy(bufferpool);
+      else if (rpolicy == 6)
+         return new ARCPolicy(bufferpool);
+      else
+         return null;
+   }
+   
+   /**
+    * Changes the number of buffers in the shard.
+    * Growing the shard adds empty buffers.
+    * Shrinking the shard removes unpinned buffers, in the order in which
+    * the replacement policy would replace them, after writing
+    * them to disk if they are dirty.
+    * The method never waits: if fewer buffers than needed are unpinned,
+    * the shard shrinks as much as it can, and then removes each
+    * further buffer when it is unpinned, until it has the desired number.
+    * The page table and the state of the replacement policy
+    * are rebuilt for the new pool; the policy's history
+    * of evicted blocks is lost.
+    * @param numbuffs the desired number of buffers, at least 1
+    * @return the number of buffers that the shard has now
+    */
+   synchronized int resize(int numbuffs) {
+      target = numbuffs;
+      if (numbuffs > bufferpool.length) {
+         List<Buffer> kept = new ArrayList<Buffer>(Arrays.asList(bufferpool));
+         for (int i=bufferpool.length; i<numbuffs; i++) {
+            Buffer buff = newBuffer();
+            buff.shard = this;
+            kept.add(buff);
+         }
+         rebuild(kept);
+      }
+      else
+         retire();
+      wakeWaiter();
+      return bufferpool.length;
+   }
+   
+   /**
+    * Removes unpinned buffers until the shard is no larger than
+    * the size it is shrinking to, or every remaining buffer is pinned.
+    */
+   private void retire() {
+      List<Buffer> removed = new ArrayList<Buffer>();
+      while (bufferpool.length - removed.size() > target) {
+         Buffer buff = chooseFrame();
+         if (buff == null)
+            buff = chooseRingFrame(null);
+         if (buff == null)
+            break;
+         buff.pin(); // so that it is not chosen again
+         numAvailable--;
+         removed.add(buff);
+      }
+      if (removed.isEmpty())
+         return;
+      for (Buffer buff : removed) {
+         buff.flush();
+         buff.ring = null;
+         buff.release();
+      }
+      List<Buffer> kept = new ArrayList<Buffer>();
+      for (Buffer buff : bufferpool)
+         if (!removed.contains(buff))
+            kept.add(buff);
+      rebuild(kept);
+   }
+   
+   /**
+    * Makes the specified buffers the shard's pool, and rebuilds
+    * the page table and the state of the replacement policy.
+    * The rings that hold buffers of the shard are fitted to its new size.
+    * @param kept the buffers of the new pool
+    */
+   private void rebuild(List<Buffer> kept) {
+      bufferpool = kept.toArray(new Buffer[0]);
+      poolMap = new PageTable(bufferpool.length);
+      emptyFrames.clear();
+      numAvailable = 0;
+      for (int i=0; i<bufferpool.length; i++) {
+         Buffer buff = bufferpool[i];
+         buff.setPosition(i);
+         if (buff.block() != null)
+            poolMap.put(buff.block().id(), i);
+         else
+            emptyFrames.add(i);
+         if (!buff.isPinned())
+            numAvailable++;
+      }
+      clockPosition = 0;
+      Set<BufferRing> rings = new HashSet<BufferRing>();
+      for (Buffer buff : bufferpool)
+         if (buff.ring != null)
+            rings.add(buff.ring);
+      for (BufferRing ring : rings)
+         for (Buffer buff : ring.fit(index, bufferpool.length))
+            if (rpolicy == 2 && !buff.isPinned() && buff.block() != null)
+               lruAppend(buff); // it left its ring, which was too large for the shard
+      policy = newPolicy();
+      if (policy != null)
+         for (Buffer buff : bufferpool)
+            if (buff.block() != null && buff.ring == null) {
+               policy.pin(buff, false);
+               policy.admit(buff);
+               if (!buff.isPinned())
+                  policy.unpin(buff);
+            }
+   }
+   
+   /**
+    * Returns the replacement policy of the shard.
+    * @return the policy number
+    */
+   int policy() {
+      return rpolicy;
+   }
+   
+   /**
+    * Returns the number of buffers in the shard.
+    * @return the number of buffers
+    */
+   synchronized int size() {
+      return bufferpool.length;
    }
    
    /**
     * Flushes the dirty buffers modified by the specified transaction.
+    * Only the buffers on the transaction's list are visited,
+    * and the list is then forgotten, since the method is called
+    * when the transaction commits or rolls back.
+    * A buffer on the list may since have been written by the background writer,
+    * or replaced and written, or removed from the pool;
+    * such a buffer is no longer modified by the transaction, and is skipped.
+    * The method does not need the shard's lock, since each
+    * buffer is written while holding its own monitor.
     * @param txnum the transaction's id number
     */
-   synchronized void flushAll(int txnum) {
-      for (Buffer buff : bufferpool)
-         if (buff.isModifiedBy(txnum))
-         buff.flush();
+   void flushAll(int txnum) {
+      Set<Buffer> buffs = dirtyFrames.remove(txnum);
+      if (buffs == null)
+         return;
+      int written = 0;
+      for (Buffer buff : buffs)
+         if (buff.isModifiedBy(txnum) && buff.flush())
+            written++;
+      if (written > 0)
+         recordCommitWrites(written);
+   }
+   
+   /**
+    * Adds the specified buffer to the list of buffers
+    * modified by the specified transaction.
+    * The method is called by the buffer when the transaction
+    * first modifies it since it was last written.
+    * @param buff the modified buffer
+    * @param txnum the id of the modifying transaction
+    */
+   void modified(Buffer buff, int txnum) {
+      dirtyFrames.computeIfAbsent(txnum, t -> ConcurrentHashMap.newKeySet()).add(buff);
+   }
+   
+   /**
+    * Records pages written when a transaction committed or rolled back.
+    * @param n the number of pages written
+    */
+   private synchronized void recordCommitWrites(int n) {
+      stats.commitWrites += n;
    }
    
    /**
     * Pins a buffer to the specified block. 
     * If there is already a buffer assigned to that block
     * then that buffer is used;  
-    * otherwise, an unpinned buffer from the pool is chosen.
-    * Returns a null value if there are no available buffers.
+    * otherwise, an unpinned buffer from the pool is chosen,
+    * and assigned to the block without reading it;
+    * the caller must call {@link Buffer#load()} after releasing the shard's lock.
+    * Returns a null value if there are no available buffers,
+    * or if other threads are waiting for buffers ahead of the calling thread.
     * @param blk a reference to a disk block
+    * @param ring the ring of the calling scan, or null
     * @return the pinned buffer
     */
-   synchronized Buffer pin(Block blk) {
+   synchronized Buffer pin(Block blk, BufferRing ring) {
       Buffer buff = findExistingBuffer(blk);
-      if (buff == null) {
-         buff = chooseUnpinnedBuffer();
+      boolean hit = (buff != null);
+      if (hit)
+         pinHit(buff, ring);
+      else {
+         if (mustQueue())
+            return null;
+         buff = chooseUnpinnedBuffer(ring);
          if (buff == null)
             return null;
-         //System.out.println(blk);
-         //System.out.println(this.toString());
-         //System.out.println("\n");
          buff.assignToBlock(blk);
-         poolMap.put(buff.getBlock().hashCode(), buff.getPosition()); // Put the block of the buffer into a hashmap for efficient checking later
+         stats.misses++;
+         poolMap.put(buff.getBlock().id(), buff.getPosition()); // Put the block of the buffer into the page table for efficient checking later
+         pinBuffer(buff, false);
+         admit(buff);
       }
-      if (!buff.isPinned())
-         numAvailable--;
-      buff.pin();
-      /** CS4432-Project1 **/
-      // Setting the new accessed time of the  buffer
-      // Also setting the second chance ref
-      long accessed = System.nanoTime();
-      buff.setAccessed(accessed);
-      buff.setRef(true);
       return buff;
    }
    
+   /**
+    * Pins buffers to a range of consecutive blocks of the specified file.
+    * Blocks that are already in the pool use their existing buffers;
+    * the remaining blocks are assigned to unpinned buffers without being read.
+    * Returns a null value (without pinning anything) if
+    * there are not enough available buffers for the whole range,
+    * or if other threads are waiting for buffers ahead of the calling thread.
+    * The caller must read the blocks with {@link Buffer#load(Buffer[])}
+    * after releasing the shard's lock, which also waits for the blocks
+    * that other threads are still reading.
+    * @param filename the name of the file
+    * @param start the number of the first block
+    * @param count the number of blocks
+    * @param ring the ring of the calling scan, or null
+    * @return the pinned buffers, in block order
+    */
+   synchronized Buffer[] pinRange(String filename, int start, int count, BufferRing ring) {
+      Buffer[] buffs = new Buffer[count];
+      int needed = 0;
+      for (int i=0; i<count; i++) {
+         buffs[i] = findExistingBuffer(new Block(filename, start+i));
+         if (buffs[i] == null || !buffs[i].isPinned())
+            needed++;
+      }
+      if (needed > numAvailable || (needed > 0 && mustQueue()))
+         return null;
+      for (Buffer buff : buffs)
+         if (buff != null)
+            pinHit(buff, ring);
+      for (int i=0; i<count; i++) {
+         if (buffs[i] != null)
+            continue;
+         Buffer buff = chooseUnpinnedBuffer(ring);
+         buff.assignToBlock(new Block(filename, start+i));
+         stats.misses++;
+         poolMap.put(buff.getBlock().id(), buff.getPosition());
+         pinBuffer(buff, false);
+         admit(buff);
+         buffs[i] = buff;
+      }
+      return buffs;
+   }
+   
    /**
     * Allocates a new block in the specified file, and
     * pins a buffer to it. 
     * Returns null (without allocating the block) if 
-    * there are no available buffers.
+    * there are no available buffers,
+    * or if other threads are waiting for buffers ahead of the calling thread.
     * @param filename the name of the file
     * @param fmtr a pageformatter object, used to format the new block
+    * @param ring the ring of the calling scan, or null
     * @return the pinned buffer
     */
-   synchronized Buffer pinNew(String filename, PageFormatter fmtr) {
-      Buffer buff = chooseUnpinnedBuffer();
+   synchronized Buffer pinNew(String filename, PageFormatter fmtr, BufferRing ring) {
+      if (mustQueue())
+         return null;
+      Buffer buff = chooseUnpinnedBuffer(ring);
       if (buff == null)
          return null;
       buff.assignToNew(filename, fmtr);
-      numAvailable--;
+      pinBuffer(buff, false);
+      poolMap.put(buff.getBlock().id(), buff.getPosition()); // Put the block of the buffer into the page table for efficient checking later
+      admit(buff);
+      return buff;
+   }
+   
+   /**
+    * Pins a buffer to the specified block, which has just been
+    * appended to its file with the contents produced by the specified formatter.
+    * The buffer's page is initialized with the same formatter,
+    * instead of being read from disk.
+    * Returns null if there are no available buffers,
+    * or if other threads are waiting for buffers ahead of the calling thread.
+    * @param blk a reference to the new block
+    * @param fmtr the pageformatter used to format the block
+    * @param ring the ring of the calling scan, or null
+    * @return the pinned buffer
+    */
+   synchronized Buffer pinFormatted(Block blk, PageFormatter fmtr, BufferRing ring) {
+      Buffer buff = findExistingBuffer(blk);
+      if (buff != null) {
+         pinHit(buff, ring);
+         return buff;
+      }
+      if (mustQueue())
+         return null;
+      buff = chooseUnpinnedBuffer(ring);
+      if (buff == null)
+         return null;
+      buff.assignToFormatted(blk, fmtr);
+      poolMap.put(buff.getBlock().id(), buff.getPosition());
+      pinBuffer(buff, false);
+      admit(buff);
+      return buff;
+   }
+   
+   /**
+    * Pins the specified buffer, updating the number of
+    * available buffers and the buffer's replacement information.
+    * @param buff the buffer to be pinned
+    * @param hit true if the buffer already held the requested block
+    */
+   private void pinBuffer(Buffer buff, boolean hit) {
+      if (policy != null && buff.ring == null)
+         policy.pin(buff, hit);
+      if (!buff.isPinned()) {
+         numAvailable--;
+         if (rpolicy == 2)
+            lruRemove(buff);
+      }
       buff.pin();
-      // Setting the first accessed time of the  buffer
-      // I mean it is new, considering this maybe should be in the buffer constructor
+      /** CS4432-Project1 **/
+      // Setting the new accessed time of the  buffer
+      // Also setting the second chance ref
       long accessed = System.nanoTime();
       buff.setAccessed(accessed);
       buff.setRef(true);
-      //System.out.println("Putting in: " + buff.getBlock().hashCode());
-      poolMap.put(buff.getBlock().hashCode(), buff.getPosition()); // Put the block of the buffer into a hashmap for efficient checking later
-      return buff;
+   }
+   
+   /**
+    * Pins a buffer that already holds the requested block.
+    * If the buffer belongs to the ring of another scan (or the
+    * pin is not made through a ring), it leaves the ring
+    * and is admitted to the replacement policy as a newly read block.
+    * @param buff the buffer to be pinned
+    * @param ring the ring of the calling scan, or null
+    */
+   private void pinHit(Buffer buff, BufferRing ring) {
+      stats.hits++;
+      if (buff.ring == null || buff.ring == ring) {
+         pinBuffer(buff, true);
+         return;
+      }
+      buff.ring = null;
+      pinBuffer(buff, false);
+      admit(buff);
+   }
+   
+   /**
+    * Tells the replacement policy about a newly assigned buffer,
+    * unless the buffer belongs to a ring.
+    * @param buff the newly assigned buffer
+    */
+   private void admit(Buffer buff) {
+      if (policy != null && buff.ring == null)
+         policy.admit(buff);
    }
    
    /**
     * Unpins the specified buffer.
+    * If the buffer becomes available, the thread at the
+    * head of the waiting queue is woken up to take it,
+    * unless the shard is shrinking, in which case a buffer is removed instead.
+    * The buffers of rings are not added to the replacement state.
     * @param buff the buffer to be unpinned
     */
    synchronized void unpin(Buffer buff) {
       buff.unpin();
-      if (!buff.isPinned())
+      if (!buff.isPinned()) {
          numAvailable++;
+         if (buff.ring == null) {
+            if (rpolicy == 2)
+               lruAppend(buff);
+            else if (policy != null)
+               policy.unpin(buff);
+         }
+         if (bufferpool.length > target)
+            retire(); // the shard is shrinking
+         wakeWaiter();
+      }
    }
    
+   /**
+    * Discards the unpinned buffers that hold blocks of the specified file,
+    * without writing them to disk.
+    * The discarded buffers become empty frames.
+    * @param filename the name of the file
+    */
+   synchronized void discard(String filename) {
+      for (Buffer buff : bufferpool) {
+         Block b = buff.block();
+         if (b != null && !buff.isPinned() && b.fileName().equals(filename)) {
+            poolMap.remove(b.id());
+            lruRemove(buff);
+            if (policy != null)
+               policy.discard(buff);
+            buff.ring = null;
+            buff.discard();
+            emptyFrames.add(buff.getPosition());
+         }
+      }
+   }
+
+   /**
+    * Adds the counters of this shard to the specified counters.
+    * @param total the counters being accumulated
+    */
+   synchronized void addStats(BufferStats total) {
+      total.add(stats);
+   }
+   
+   /**
+    * Resets the counters of this shard.
+    */
+   synchronized void resetStats() {
+      stats = new BufferStats();
+   }
+   
+   /**
+    * Records the time that a pin spent waiting for a buffer.
+    * The caller must hold the lock of this shard.
+    * @param nanos the waiting time in nanoseconds
+    * @param aborted true if the pin gave up
+    */
+   void recordWait(long nanos, boolean aborted) {
+      stats.pinWait.record(nanos);
+      if (aborted)
+         stats.aborts++;
+   }
+   
+   /**
+    * Records the time taken to read a block that was
+    * read without holding the lock of this shard.
+    * @param nanos the reading time in nanoseconds
+    */
+   synchronized void recordRead(long nanos) {
+      stats.readTime.record(nanos);
+   }
+   
+   /**
+    * Adds the specified thread to the tail of the queue of threads
+    * waiting for buffers of this shard.
+    * Until the thread reaches the head of the queue,
+    * its requests for buffers that are not in the pool return null,
+    * and so do those of threads that are not in the queue.
+    * @param thread the waiting thread
+    */
+   synchronized void addWaiter(Thread thread) {
+      waiters.addLast(thread);
+   }
+   
+   /**
+    * Removes the specified thread from the queue of waiting threads,
+    * once it has got its buffers or given up.
+    * If the thread was at the head of the queue, the
+    * next thread is woken up if a buffer is available for it.
+    * @param thread the waiting thread
+    */
+   synchronized void removeWaiter(Thread thread) {
+      boolean head = (waiters.peekFirst() == thread);
+      waiters.remove(thread);
+      if (head)
+         wakeWaiter();
+   }
+   
+   /**
+    * Returns true if the calling thread must leave the available buffers
+    * to the threads that have been waiting for buffers longer.
+    * @return true if another thread is at the head of the waiting queue
+    */
+   private boolean mustQueue() {
+      Thread head = waiters.peekFirst();
+      return head != null && head != Thread.currentThread();
+   }
+   
+   /**
+    * Wakes up the thread at the head of the waiting queue,
+    * if there is one and a buffer is available.
+    * Only that thread is woken up, since the others could not
+    * take the buffer anyway.
+    */
+   private void wakeWaiter() {
+      Thread head = waiters.peekFirst();
+      if (head != null && numAvailable > 0)
+         LockSupport.unpark(head);
+   }
+   
+   /**
+    * Records pages written by the background writer.
+    * @param n the number of pages written
+    */
+   synchronized void recordWriterWrites(int n) {
+      stats.writerWrites += n;
+   }
+   
+   /**
+    * Sets the background writer, which is woken up
+    * whenever a replaced buffer turns out to be dirty.
+    * @param writer the writer, or null
+    */
+   synchronized void setWriter(BufferWriter writer) {
+      this.writer = writer;
+   }
+   
+   /**
+    * Returns the dirty unpinned buffers that must be written
+    * so that at least the specified fraction of the unpinned buffers is clean.
+    * The buffers are chosen in the order in which the replacement
+    * policy would replace them, where that order is known,
+    * and are returned in block order.
+    * @param target the fraction of unpinned buffers to keep clean
+    * @return the buffers to be written
+    */
+   synchronized Buffer[] cleaningCandidates(double target) {
+      List<Buffer> dirty = new ArrayList<Buffer>();
+      if (rpolicy == 2) {
+         for (Buffer buff = lruHead; buff != null; buff = buff.lruNext)
+            if (buff.isDirty())
+               dirty.add(buff);
+      }
+      else {
+         int start = (rpolicy == 3) ? clockPosition : 0;
+         for (int i=0; i<bufferpool.length; i++) {
+            Buffer buff = bufferpool[(start + i) % bufferpool.length];
+            if (!buff.isPinned() && buff.isDirty())
+               dirty.add(buff);
+         }
+      }
+      int clean = numAvailable - dirty.size();
+      int needed = (int) Math.ceil(target * numAvailable) - clean;
+      if (needed <= 0)
+         return new Buffer[0];
+      Buffer[] buffs = dirty.subList(0, Math.min(needed, dirty.size())).toArray(new Buffer[0]);
+      Arrays.sort(buffs, BLOCK_ORDER);
+      return buffs;
+   }
+   
+   /**
+    * Returns the number of blocks that can be prefetched into this shard
+    * on behalf of the specified ring without taking buffers from the rest of the pool.
+    * @see BufferRing#room(int, int)
+    * @param ring the ring of the calling scan
+    * @return the number of blocks, or the number of available buffers if
+    * the shard is too small for a ring
+    */
+   synchronized int ringRoom(BufferRing ring) {
+      if (!ring.enabled(index, bufferpool.length))
+         return numAvailable;
+      return ring.room(index, bufferpool.length);
+   }
+   
+   /**
+    * Adds the blocks held by the shard's buffers to the specified map,
+    * each with the time at which its buffer was last pinned.
+    * The buffers of rings are skipped, since a bulk scan
+    * is not expected to read the same blocks again soon.
+    * @param residents the map from blocks to their last access times
+    */
+   synchronized void addResidents(Map<Block,Long> residents) {
+      for (Buffer buff : bufferpool)
+         if (buff.block() != null && buff.ring == null)
+            residents.put(buff.block(), buff.getAccessed());
+   }
+
+   /**
+    * Assigns those blocks in a range of consecutive blocks of the specified file
+    * that are not in the pool to the shard's empty buffers, and pins them.
+    * The blocks already in the pool are left alone, so that
+    * warming the pool does not count as a use of them,
+    * and no block is replaced: the method stops when the shard
+    * has no empty buffers left, or when threads are waiting for buffers.
+    * The caller must read each run of blocks with {@link Buffer#load(Buffer[])}
+    * after releasing the shard's lock, and then unpin its buffers.
+    * @param filename the name of the file
+    * @param start the number of the first block
+    * @param count the number of blocks
+    * @return the pinned buffers, as runs of consecutive blocks
+    */
+   synchronized List<Buffer[]> warm(String filename, int start, int count) {
+      List<Buffer[]> runs = new ArrayList<Buffer[]>();
+      int i = 0;
+      while (i < count && !emptyFrames.isEmpty() && !mustQueue()) {
+         if (findExistingBuffer(new Block(filename, start+i)) != null) {
+            i++;
+            continue;
+         }
+         int j = i + 1;
+         while (j < count && j - i < emptyFrames.size()
+               && findExistingBuffer(new Block(filename, start+j)) == null)
+            j++;
+         Buffer[] run = new Buffer[j-i];
+         for (int k=0; k<run.length; k++) {
+            run[k] = chooseFrame(); // an empty frame, since there are enough of them
+            run[k].assignToBlock(new Block(filename, start+i+k));
+            stats.misses++;
+            poolMap.put(run[k].getBlock().id(), run[k].getPosition());
+            pinBuffer(run[k], false);
+            admit(run[k]);
+         }
+         runs.add(run);
+         i = j;
+      }
+      return runs;
+   }
+
    /**
     * Returns the number of available (i.e. unpinned) buffers.
     * @return the number of available buffers
@@ -134,30 +722,106 @@ class BasicBufferMgr {
       return numAvailable;
    }
    
+   /**
+    * Returns true if the specified block is in the pool.
+    * @param blk a reference to a disk block
+    * @return true if a buffer is assigned to the block
+    */
+   synchronized boolean contains(Block blk) {
+      return findExistingBuffer(blk) != null;
+   }
+   
    // CS4432-Project1
    // Given a block ID, checks whether this ID exists
-   // in the buffer pool by checking the key against the hashmap
+   // in the buffer pool by checking the key against the page table
    private Buffer findExistingBuffer(Block blk) {
-	   /*
-      for (Buffer buff : bufferpool) {
-         Block b = buff.block();
-         if (b != null && b.equals(blk))
-            return buff;
-      }
-      return null;*/
-	  //System.out.println("Searching for: " + blk);
-	  Integer returnBuff = poolMap.get(blk.hashCode());
-	  if (returnBuff == null){
-		  return null;
-	  }
-	  else {
-		  //System.out.println("FOUND MATCH: " + blk);
-		  return bufferpool[returnBuff];
-	  }
+      int returnBuff = poolMap.get(blk.id());
+      if (returnBuff < 0)
+         return null;
+      else
+         return bufferpool[returnBuff];
    }
    
 
-   private Buffer chooseUnpinnedBuffer() {
+   /**
+    * Chooses an unpinned buffer for a block that is not in the pool.
+    * If a ring is given, then the buffer at the ring's hand is reused
+    * if it is unpinned; otherwise the buffer is chosen by the replacement
+    * policy, and takes the place of that buffer in the ring
+    * unless the buffer is still pinned by the ring's scan.
+    * @param ring the ring of the calling scan, or null
+    * @return the chosen buffer, or null if every buffer is pinned
+    */
+   private Buffer chooseUnpinnedBuffer(BufferRing ring) {
+      Buffer buff = null;
+      if (ring != null) {
+         Buffer next = ring.current(index, bufferpool.length);
+         if (next != null && next.ring == ring && !next.isPinned() && next.block() != null) {
+            ring.advance(index);
+            poolMap.remove(next.block().id());
+            buff = next;
+         }
+      }
+      if (buff == null) {
+         buff = chooseFrame();
+         if (buff == null)
+            buff = chooseRingFrame(ring);
+         if (buff == null)
+            return null;
+         if (buff.ring != ring || ring == null) { // otherwise it is already in the ring
+            buff.ring = null; // the buffer may have been taken from another ring
+            if (ring != null && ring.enabled(index, bufferpool.length)) {
+               Buffer old = ring.current(index, bufferpool.length);
+               if (old != null && old.ring == ring)
+                  ring.advance(index); // still pinned by the scan, so the new buffer stays in the pool
+               else {
+                  ring.replace(index, bufferpool.length, buff);
+                  buff.ring = ring;
+               }
+            }
+         }
+      }
+      if (buff.block() != null) {
+         stats.evictions++;
+         if (buff.isDirty()) {
+            stats.dirtyEvictions++;
+            if (writer != null)
+               writer.wake(); // the writer is falling behind
+         }
+      }
+      return buff;
+   }
+
+   /**
+    * Chooses an unpinned buffer belonging to any ring.
+    * This is needed when the replacement policy finds no victim
+    * because every unpinned buffer belongs to a ring.
+    * Buffers of other rings are preferred to those of the specified ring,
+    * so that a scan does not evict the blocks that it has just read ahead.
+    * @param ring the ring of the calling scan, or null
+    * @return the buffer, or null if every buffer is pinned
+    */
+   private Buffer chooseRingFrame(BufferRing ring) {
+      if (numAvailable == 0)
+         return null;
+      Buffer own = null;
+      for (Buffer buff : bufferpool)
+         if (!buff.isPinned() && buff.ring != null) {
+            if (buff.ring != ring) {
+               poolMap.remove(buff.getBlock().id());
+               return buff;
+            }
+            if (own == null)
+               own = buff;
+         }
+      if (own != null)
+         poolMap.remove(own.getBlock().id());
+      return own;
+   }
+
+   private Buffer chooseFrame() {
+	  if (numAvailable == 0)
+		  return null; // every buffer is pinned
 	  if (rpolicy == 2) {
 		  // CS4432-Project1 - efficient finding of empty frames
 		  if (emptyFrames.isEmpty() == false){
@@ -178,6 +842,18 @@ class BasicBufferMgr {
 		  // No empty frames proceed to ClockPolicy
 		  return ClockPolicy();
 	  } 
+	  else if (policy != null) {
+		  if (emptyFrames.isEmpty() == false){
+			  Buffer buff = bufferpool[emptyFrames.get(0)]; // get first empty frame in the list
+			  emptyFrames.remove(0); // remove frame from list of empty frames
+			  return buff; 
+		  }
+		  // No empty frames, ask the 2Q, LRU-2, or ARC policy for a victim
+		  Buffer buff = policy.victim();
+		  if (buff != null)
+			  poolMap.remove(buff.getBlock().id());
+		  return buff;
+	  }
 	  else {
 		  // CS4432-Project1 - efficient finding of empty frames
 		  if (emptyFrames.isEmpty() == false){
@@ -188,7 +864,7 @@ class BasicBufferMgr {
 		  // No empty frames, do the default
 			for (Buffer buff : bufferpool)
 				if (!buff.isPinned()) {
-					poolMap.remove(buff.getBlock().hashCode());
+					poolMap.remove(buff.getBlock().id());
 					return buff;
 				}
 			return null;
@@ -197,19 +873,49 @@ class BasicBufferMgr {
    
    /** CS4432-Project1 **/
    // LRU Policy
+   // The unpinned buffers are kept in a doubly linked list, in the order
+   // in which they were last unpinned, so the victim is simply the head of the list.
    private Buffer LRUPolicy() {
-	   long leastRecent = Long.MAX_VALUE;
-	   int candidatePosition = 0;
-	   int actualPosition = 0;
-	   for (Buffer buff : bufferpool) {
-		   if (!buff.isPinned() && buff.getAccessed() < leastRecent) {
-			   leastRecent = buff.getAccessed();
-			   candidatePosition = actualPosition;
-		   }
-		   actualPosition++;
-	   }
-	   poolMap.remove(bufferpool[candidatePosition].getBlock().hashCode());
-	   return bufferpool[candidatePosition];
+	   Buffer victim = lruHead;
+	   if (victim == null)
+		   return null;
+	   lruRemove(victim);
+	   poolMap.remove(victim.getBlock().id());
+	   return victim;
+   }
+   
+   /**
+    * Appends the specified buffer to the most recently used
+    * end of the LRU list.
+    * @param buff an unpinned buffer that is not in the list
+    */
+   private void lruAppend(Buffer buff) {
+      buff.lruPrev = lruTail;
+      buff.lruNext = null;
+      if (lruTail == null)
+         lruHead = buff;
+      else
+         lruTail.lruNext = buff;
+      lruTail = buff;
+   }
+   
+   /**
+    * Removes the specified buffer from the LRU list,
+    * if it is in the list.
+    * @param buff the buffer
+    */
+   private void lruRemove(Buffer buff) {
+      if (buff.lruPrev == null && lruHead != buff)
+         return;
+      if (buff.lruPrev == null)
+         lruHead = buff.lruNext;
+      else
+         buff.lruPrev.lruNext = buff.lruNext;
+      if (buff.lruNext == null)
+         lruTail = buff.lruPrev;
+      else
+         buff.lruNext.lruPrev = buff.lruPrev;
+      buff.lruPrev = buff.lruNext = null;
    }
    
    /** CS4432-Project1 **/
@@ -234,7 +940,7 @@ class BasicBufferMgr {
 	   // Evict this page
 	   else if (!candidateBuff.isPinned() && !candidateBuff.getRef()) {
 		   moveClockPosition();
-		   poolMap.remove(candidateBuff.getBlock().hashCode());
+		   poolMap.remove(candidateBuff.getBlock().id());
 		   return candidateBuff;
 	   }
 	   // If somehow everything fails return null
@@ -252,16 +958,23 @@ class BasicBufferMgr {
 	   }
    }
    
-   /** CS4432-Project1 **/
-   @Override
-   public String toString() {
-	   /*StringBuilder bufferDisplay = new StringBuilder();
-	   for (int i=0; i < bufferpool.length; i++) {
-		   bufferDisplay.append(bufferpool[i]);
-		   bufferDisplay.append("\n");
-	   }
-	   return "Buffer Contents: " + bufferDisplay + "HashMap Contents" + poolMap + "| Empty Frames Contents: " + emptyFrames + "| ClockPosition: " + clockPosition;
-   }*/
-	   return "";
-	   }
-}
\ No newline at end of file
+   /**
+    * Describes the shard: its size, its counters, and
+    * the block held by each of its buffers.
+    * @return the description
+    */
+   public synchronized String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append("shard ").append(index).append(": ")
+        .append(bufferpool.length).append(" buffers")
+        .append((bufferpool.length > target) ? " shrinking to " + target + ", " : ", ")
+        .append(numAvailable).append(" unpinned, ")
+        .append(emptyFrames.size()).append(" empty, policy ")
+        .append(BufferPoolMonitor.policyName(rpolicy)).append(", ")
+        .append(stats).append("\n");
+      for (Buffer buff : bufferpool)
+         if (buff.block() != null)
+            sb.append("  ").append(buff.getPosition()).append(": ").append(buff).append("\n");
+      return sb.toString();
+   }
+}
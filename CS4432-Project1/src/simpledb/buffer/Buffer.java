@@ -14,14 +14,18 @@ import simpledb.file.*;
  * @author Edward Sciore
  */
 public class Buffer {
-   private Page contents = new Page();
+   private Page contents;
    private Block blk = null;
    private int pins = 0;
-   private int modifiedBy = -1;  // negative means not modified
+   private volatile int modifiedBy = -1;  // negative means not modified
    private int logSequenceNumber = -1; // negative means no corresponding log record
+   private volatile boolean unread; // true if the block has been assigned but not yet read
    private long lastAccess = -1; /** CS4432-Project1 **/ // time in ns when this buffer was last accessed
    private boolean ref; /** CS4432-Project1 **/ // second chance boolean
    private int position; /** CS4432-Project1 **/ // Position in the buffer pool
+   Buffer lruPrev, lruNext; // neighbors in the buffer manager's recency list
+   BufferRing ring; // the ring that the buffer belongs to, if any
+   BasicBufferMgr shard; // the shard that tracks the buffer's modifying transaction
 
 /**
     * Creates a new buffer, wrapping a new 
@@ -37,7 +41,18 @@ public class Buffer {
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
     */
-   public Buffer() {}
+   public Buffer() {
+      contents = new Page(SimpleDB.fileMgr().arena());
+   }
+   
+   /**
+    * Creates a buffer that has no page, for a buffer pool
+    * that is only simulated (see {@link TraceSimulator}).
+    * The buffer can be pinned, assigned to blocks, and replaced,
+    * but its contents cannot be read or written.
+    * @param simulated distinguishes this constructor; ignored
+    */
+   Buffer(boolean simulated) {}
    
    // CS4432-Project1
    // Returns the block ID of the buffer
@@ -125,13 +140,28 @@ public class Buffer {
       return contents.getString(offset);
    }
 
+   /**
+    * Compares the string value at the specified offset of the
+    * buffer's page with the specified encoded string.
+    * @see simpledb.file.Page#compareString(int, byte[])
+    * @param offset the byte offset of the page
+    * @param key the encoded string to compare with
+    * @return a negative integer, zero, or a positive integer as the
+    * string in the page is less than, equal to, or greater than the key
+    */
+   public int compareString(int offset, byte[] key) {
+      return contents.compareString(offset, key);
+   }
+
    /**
     * Writes an integer to the specified offset of the
     * buffer's page.
     * This method assumes that the transaction has already
     * written an appropriate log record.
     * The buffer saves the id of the transaction
-    * and the LSN of the log record.
+    * and the LSN of the log record, and the first modification
+    * by a transaction is reported to the buffer's shard,
+    * which keeps the transaction's list of dirty buffers.
     * A negative lsn value indicates that a log record
     * was not necessary.
     * @param offset the byte offset within the page
@@ -139,8 +169,8 @@ public class Buffer {
     * @param txnum the id of the transaction performing the modification
     * @param lsn the LSN of the corresponding log record
     */
-   public void setInt(int offset, int val, int txnum, int lsn) {
-      modifiedBy = txnum;
+   public synchronized void setInt(int offset, int val, int txnum, int lsn) {
+      setModifiedBy(txnum);
       if (lsn >= 0)
 	      logSequenceNumber = lsn;
       contents.setInt(offset, val);
@@ -154,19 +184,25 @@ public class Buffer {
     * A negative lsn value indicates that a log record
     * was not necessary.
     * The buffer saves the id of the transaction
-    * and the LSN of the log record.
+    * and the LSN of the log record, as in {@link #setInt(int, int, int, int)}.
     * @param offset the byte offset within the page
     * @param val the new string value to be written
     * @param txnum the id of the transaction performing the modification
     * @param lsn the LSN of the corresponding log record
     */
-   public void setString(int offset, String val, int txnum, int lsn) {
-      modifiedBy = txnum;
+   public synchronized void setString(int offset, String val, int txnum, int lsn) {
+      setModifiedBy(txnum);
       if (lsn >= 0)
 	      logSequenceNumber = lsn;
       contents.setString(offset, val);
    }
 
+   private void setModifiedBy(int txnum) {
+      if (modifiedBy != txnum && shard != null)
+         shard.modified(this, txnum);
+      modifiedBy = txnum;
+   }
+
    /**
     * Returns a reference to the disk block
     * that the buffer is pinned to.
@@ -182,13 +218,19 @@ public class Buffer {
     * The method ensures that the corresponding log
     * record has been written to disk prior to writing
     * the page to disk.
+    * The method may be called by the background writer
+    * while another thread has the buffer pinned;
+    * the buffer's monitor keeps the page from being
+    * modified while it is being written.
+    * @return true if the page was written
     */
-   void flush() {
-      if (modifiedBy >= 0) {
-         SimpleDB.logMgr().flush(logSequenceNumber);
-         contents.write(blk);
-         modifiedBy = -1;
-      }
+   synchronized boolean flush() {
+      if (modifiedBy < 0)
+         return false;
+      SimpleDB.logMgr().flush(logSequenceNumber);
+      contents.write(blk);
+      modifiedBy = -1;
+      return true;
    }
 
    /**
@@ -217,6 +259,7 @@ public class Buffer {
    /**
     * Returns true if the buffer is dirty
     * due to a modification by the specified transaction.
+    * The method does not wait for a read of the page in progress.
     * @param txnum the id of the transaction
     * @return true if the transaction modified the buffer
     */
@@ -225,19 +268,115 @@ public class Buffer {
    }
 
    /**
-    * Reads the contents of the specified block into
-    * the buffer's page.
+    * Returns true if the buffer's page has been modified
+    * since it was last written to disk.
+    * The method does not wait for a read of the page in progress.
+    * @return true if the buffer is dirty
+    */
+   boolean isDirty() {
+      return modifiedBy >= 0;
+   }
+
+   /**
+    * Assigns the buffer to the specified block,
+    * whose contents are read later by {@link #load()}.
     * If the buffer was dirty, then the contents
     * of the previous page are first written to disk.
+    * Splitting the assignment from the read lets the buffer manager
+    * read the block without holding the lock of its shard.
     * @param b a reference to the data block
     */
-   void assignToBlock(Block b) {
+   synchronized void assignToBlock(Block b) {
       flush();
       blk = b;
-      contents.read(blk);
+      unread = true;
       pins = 0;
    }
 
+   /**
+    * Reads the buffer's block into its page, if that
+    * has not been done since the buffer was assigned to the block.
+    * Every thread that pins the buffer calls this method
+    * before using the page; the first one reads the block,
+    * and the others wait on the buffer's monitor until the read is done.
+    * If the read fails, the next call tries again.
+    * @return true if the block was read by this call
+    */
+   boolean load() {
+      if (!unread)
+         return false; // the usual case, which needs no locking
+      synchronized (this) {
+         if (!unread)
+            return false;
+         contents.read(blk);
+         unread = false;
+         return true;
+      }
+   }
+
+   /**
+    * Reads the blocks of the specified buffers that have not been read
+    * since the buffers were assigned to them, as {@link #load()} does for
+    * a single buffer, but reading each run of consecutive unread blocks
+    * with a single I/O request.
+    * The buffers must be pinned, and must hold consecutive blocks of a file,
+    * in block order.
+    * The monitors of all the buffers are held while the blocks are read,
+    * so that a thread that pins one of the blocks meanwhile waits for the read;
+    * they are acquired in block order, so two threads loading
+    * overlapping ranges cannot deadlock.
+    * If a read fails, its buffers remain unread, and the next load tries again.
+    * @param buffs the buffers
+    * @return the number of blocks read by this call
+    */
+   static int load(Buffer[] buffs) {
+      return load(buffs, 0);
+   }
+
+   /**
+    * Acquires the monitors of the buffers from the specified position on,
+    * and then reads the unread blocks of all the buffers.
+    */
+   private static int load(Buffer[] buffs, int locked) {
+      if (locked < buffs.length)
+         synchronized (buffs[locked]) {
+            return load(buffs, locked + 1);
+         }
+      int n = 0;
+      int i = 0;
+      while (i < buffs.length) {
+         if (!buffs[i].unread) {
+            i++;
+            continue;
+         }
+         int j = i;
+         while (j < buffs.length && buffs[j].unread)
+            j++;
+         Page[] pages = new Page[j-i];
+         for (int k=0; k<pages.length; k++)
+            pages[k] = buffs[i+k].contents;
+         Page.read(buffs[i].blk, pages);
+         for (int k=i; k<j; k++)
+            buffs[k].unread = false;
+         n += j - i;
+         i = j;
+      }
+      return n;
+   }
+   
+   /**
+    * Disassociates the buffer from its block,
+    * without writing the page to disk.
+    * The method is used when the block's file is being deleted,
+    * so any modifications to the page are intentionally lost.
+    */
+   synchronized void discard() {
+      blk = null;
+      unread = false;
+      modifiedBy = -1;
+      logSequenceNumber = -1;
+   }
+
    /**
     * Initializes the buffer's page according to the specified formatter,
     * and appends the page to the specified file.
@@ -246,13 +385,41 @@ public class Buffer {
     * @param filename the name of the file
     * @param fmtr a page formatter, used to initialize the page
     */
-   void assignToNew(String filename, PageFormatter fmtr) {
+   synchronized void assignToNew(String filename, PageFormatter fmtr) {
       flush();
       fmtr.format(contents);
       blk = contents.append(filename);
+      unread = false;
+      pins = 0;
+   }
+   
+   /**
+    * Initializes the buffer's page according to the specified formatter,
+    * and assigns the buffer to the specified block,
+    * which must have been appended with the same formatting.
+    * If the buffer was dirty, then the contents
+    * of the previous page are first written to disk.
+    * @param b a reference to the new block
+    * @param fmtr a page formatter, used to initialize the page
+    */
+   synchronized void assignToFormatted(Block b, PageFormatter fmtr) {
+      flush();
+      fmtr.format(contents);
+      blk = b;
+      unread = false;
       pins = 0;
    }
    
+   /**
+    * Returns the buffer's page to the page arena.
+    * The method is called when the buffer is removed from the pool,
+    * and the buffer must not be used afterwards.
+    */
+   synchronized void release() {
+      if (contents != null)
+         contents.release();
+   }
+   
    @Override
    public String toString() {
 	   return "Buffer ID: " + logSequenceNumber + " | BlockInfo: " + blk + " | Pins: " + pins + " | Last Access: " + lastAccess + " | Dirty: " + modifiedBy;
@@ -1,5 +1,21 @@
 package simpledb.buffer;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import simpledb.server.SimpleDB;
 import simpledb.file.*;
 
 /**
@@ -11,16 +27,120 @@ import simpledb.file.*;
  * will never return null.
  * If no buffers are currently available, then the
  * calling thread will be placed on a waiting list.
- * The waiting threads are removed from the list when 
- * a buffer becomes available.
+ * The waiting list is a FIFO queue: when a buffer becomes available,
+ * only the thread at the head of the queue is woken up, and
+ * the available buffers are left to it, even if other
+ * threads ask for them in the meantime.
+ * When the head thread has its buffers, it wakes up the next
+ * thread if more buffers are available.
  * If a thread has been waiting for a buffer for an
  * excessive amount of time (currently, 10 seconds)
  * then a {@link BufferAbortException} is thrown.
+ * <p>
+ * A block that is not in the pool is read without holding the lock of
+ * its shard, so that other threads can use the shard meanwhile.
+ * A thread that pins the block while it is being read waits
+ * for that read alone, on the monitor of the block's buffer.
+ * <p>
+ * The buffer pool can be partitioned into shards, each of which
+ * is a basic buffer manager with its own buffers, page table,
+ * replacement state, lock, and waiting list.
+ * A block always goes to the same shard, which is chosen by hashing its
+ * filename and the run of {@link #RUN_BLOCKS} consecutive blocks it belongs to;
+ * threads that access blocks in different shards do not contend.
+ * Since a thread can wait for a buffer in a shard while buffers
+ * are available in other shards, each shard should be reasonably large.
+ <p>
+ * The pages of index files, of the catalog tables, and of temporary tables
+ * can each be given a sub-pool of their own, with its own size and replacement
+ * policy, so that B-tree directories and metadata stay in memory
+ * however much the other pages are scanned and sorted.
+ * Each sub-pool has its own shards; a block goes to the sub-pool of
+ * its file's role ({@link #DATA}, {@link #INDEX}, {@link #CATALOG}, or {@link #TEMP}),
+ * and roles without a sub-pool share the data sub-pool.
+ * The role of a file is decided by its name: temporary tables and
+ * the catalog tables have fixed names, and index files are recognized
+ * by the names of their indexes, which the metadata manager registers
+ * with {@link #addIndex(String)}.
+ * A file keeps the role it had the first time one of its blocks was pinned,
+ * so that its blocks are never in two sub-pools, until its buffers are discarded.
+ * <p>
+ * The pool can be resized while the system is running, by
+ * {@link #resize(int)}, and each sub-pool by {@link #resize(int, int)}.
+ * <p>
+ * A background {@link BufferWriter writer} can be started with
+ * {@link #setCleanTarget(double)}; it writes dirty unpinned buffers ahead of time,
+ * so that replacing a buffer usually does not require writing it first.
+ * <p>
+ * Asynchronous {@link ReadAhead read-ahead} can be started with
+ * {@link #setReadAhead(int)}; when a thread pins consecutive blocks of a file,
+ * the following blocks are read into the pool by background I/O threads.
+ * <p>
+ * The blocks in the pool can be saved in a snapshot file with
+ * {@link #saveResidency()}, and read back in the background
+ * after a restart with {@link #warmUp()}; see {@link BufferWarmer}.
  * @author Edward Sciore
  */
 public class BufferMgr {
    private static final long MAX_TIME = 10000; // 10 seconds
-   private BasicBufferMgr bufferMgr;
+   
+   /**
+    * The number of consecutive blocks of a file that are
+    * assigned to the same shard, so that a run of blocks
+    * can be read into one shard with a single I/O request.
+    */
+   public static final int RUN_BLOCKS = 16;
+   
+   /**
+    * The minimum number of buffers per shard
+    * when the number of shards is chosen automatically.
+    */
+   public static final int MIN_SHARD_BUFFERS = 64;
+   
+   /**
+    * The name of the file in the database directory that holds
+    * the snapshot of the blocks in the pool.
+    */
+   public static final String RESIDENCY_FILE = "simpledb.resident";
+   
+   /**
+    * The role of the files of ordinary tables.
+    */
+   public static final int DATA = 0;
+   
+   /**
+    * The role of index files.
+    */
+   public static final int INDEX = 1;
+   
+   /**
+    * The role of the catalog tables.
+    */
+   public static final int CATALOG = 2;
+   
+   /**
+    * The role of temporary tables.
+    */
+   public static final int TEMP = 3;
+   
+   private static final int ROLES = 4;
+   private static final Set<String> CATALOG_FILES = new HashSet<String>(
+         Arrays.asList("tblcat.tbl", "fldcat.tbl", "idxcat.tbl", "viewcat.tbl"));
+   
+   private BasicBufferMgr[] shards; // the shards of all sub-pools
+   private BasicBufferMgr[][] pools; // the shards of the sub-pool of each role
+   private boolean subpools; // true if some role has a sub-pool of its own
+   private Set<String> indexNames = ConcurrentHashMap.newKeySet();
+   private Map<String,Integer> fileRoles = new ConcurrentHashMap<String,Integer>();
+   private int rpolicy;
+   private BufferWriter writer;
+   private volatile ReadAhead readAhead;
+   private volatile BufferTrace trace;
+   private ThreadLocal<Page> newPage = new ThreadLocal<Page>() {
+      protected Page initialValue() {
+         return new Page();
+      }
+   };
    
    /**
     * Creates a new buffer manager having the specified 
@@ -33,14 +153,95 @@ public class BufferMgr {
     * Thus this constructor cannot be called until 
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
+    * The number of shards is chosen automatically.
     * @param numbuffers the number of buffer slots to allocate
     * --CS4432-PROJECT1--
     * @param rpolicy Replacement policy being used.
     * 1 - Default, 2 - LRU Replacement, 3 - Clock Replacement
     * --CS4432-PROJECT1--
+    * 4 - 2Q, 5 - LRU-2, 6 - ARC (scan-resistant policies)
     */
    public BufferMgr(int numbuffers, int rpolicy) {
-      bufferMgr = new BasicBufferMgr(numbuffers, rpolicy);
+      this(numbuffers, rpolicy, 0);
+   }
+   
+   /**
+    * Creates a new buffer manager having the specified
+    * number of buffers, partitioned into the specified number of shards.
+    * If the number of shards is 0, then it is chosen automatically:
+    * one shard per available processor, rounded down to a power of two,
+    * but with at least {@link #MIN_SHARD_BUFFERS} buffers per shard.
+    * All files share the pool.
+    * @param numbuffers the number of buffer slots to allocate
+    * @param rpolicy the replacement policy of each shard
+    * @param numshards the number of shards, or 0
+    */
+   public BufferMgr(int numbuffers, int rpolicy, int numshards) {
+      this(numbuffers, rpolicy, numshards, new int[ROLES], new int[ROLES]);
+   }
+   
+   /**
+    * Creates a new buffer manager whose pool is divided into sub-pools
+    * by file role.
+    * The data sub-pool has the specified number of buffers, shards, and policy;
+    * each other role with a positive size gets a sub-pool of that many buffers,
+    * whose number of shards is chosen automatically.
+    * @param numbuffers the number of buffers of the data sub-pool
+    * @param rpolicy the replacement policy of the data sub-pool
+    * @param numshards the number of shards of the data sub-pool, or 0
+    * @param sizes the number of buffers of each role's sub-pool, indexed by role;
+    * 0 means that the role shares the data sub-pool
+    * @param policies the replacement policy of each role's sub-pool, indexed by role;
+    * 0 means the policy of the data sub-pool
+    */
+   public BufferMgr(int numbuffers, int rpolicy, int numshards, int[] sizes, int[] policies) {
+      int total = numbuffers;
+      for (int role=DATA+1; role<ROLES; role++)
+         total += Math.max(0, sizes[role]);
+      SimpleDB.fileMgr().arena().reserve(total);
+      this.rpolicy = rpolicy;
+      List<BasicBufferMgr> all = new ArrayList<BasicBufferMgr>();
+      pools = new BasicBufferMgr[ROLES][];
+      pools[DATA] = newShards(numbuffers, rpolicy, numshards, all);
+      for (int role=DATA+1; role<ROLES; role++) {
+         if (sizes[role] > 0) {
+            int policy = (policies[role] > 0) ? policies[role] : rpolicy;
+            pools[role] = newShards(sizes[role], policy, 0, all);
+            subpools = true;
+         }
+         else
+            pools[role] = pools[DATA];
+      }
+      shards = all.toArray(new BasicBufferMgr[0]);
+   }
+   
+   /**
+    * Creates the shards of a sub-pool, numbering them after the
+    * shards created so far.
+    * If the number of shards is 0, then it is chosen automatically,
+    * as described in {@link #BufferMgr(int, int, int)}.
+    * @param numbuffers the number of buffers of the sub-pool
+    * @param rpolicy the replacement policy of the sub-pool
+    * @param numshards the number of shards, or 0
+    * @param all the shards created so far, to which the new shards are added
+    * @return the shards of the sub-pool
+    */
+   private static BasicBufferMgr[] newShards(int numbuffers, int rpolicy, int numshards,
+                                             List<BasicBufferMgr> all) {
+      if (numshards <= 0) {
+         int cpus = Runtime.getRuntime().availableProcessors();
+         numshards = 1;
+         while (numshards * 2 <= cpus && numbuffers / (numshards * 2) >= MIN_SHARD_BUFFERS)
+            numshards *= 2;
+      }
+      numshards = Math.max(1, Math.min(numshards, numbuffers));
+      BasicBufferMgr[] pool = new BasicBufferMgr[numshards];
+      for (int i=0; i<numshards; i++) {
+         int n = numbuffers / numshards + (i < numbuffers % numshards ? 1 : 0);
+         pool[i] = new BasicBufferMgr(n, rpolicy, all.size());
+         all.add(pool[i]);
+      }
+      return pool;
    }
    
    /**
@@ -51,21 +252,37 @@ public class BufferMgr {
     * @param blk a reference to a disk block
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pin(Block blk) {
+   public Buffer pin(Block blk) {
+      return pin(blk, null);
+   }
+   
+   /**
+    * Pins a buffer to the specified block on behalf of a scan
+    * that recycles the buffers of the specified ring.
+    * @see BufferRing
+    * @param blk a reference to a disk block
+    * @param ring the scan's ring, or null
+    * @return the buffer pinned to that block
+    */
+   public Buffer pin(Block blk, BufferRing ring) {
+      BasicBufferMgr shard = shard(blk.fileName(), blk.number());
+      Buffer buff = acquire(shard, () -> shard.pin(blk, ring));
+      if (buff == null)
+         throw new BufferAbortException();
+      BufferTrace tr = trace;
+      if (tr != null)
+         tr.record(BufferTrace.PIN, blk, ring);
+      ReadAhead ra = readAhead;
+      if (ra != null)
+         ra.pinned(blk, ring); // before the read, so that the I/O overlaps
       try {
-         long timestamp = System.currentTimeMillis();
-         Buffer buff = bufferMgr.pin(blk);
-         while (buff == null && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            buff = bufferMgr.pin(blk);
-         }
-         if (buff == null)
-            throw new BufferAbortException();
-         return buff;
+         load(shard, buff);
       }
-      catch(InterruptedException e) {
-         throw new BufferAbortException();
+      catch (RuntimeException e) {
+         unpin(buff);
+         throw e;
       }
+      return buff;
    }
    
    /**
@@ -73,37 +290,178 @@ public class BufferMgr {
     * potentially waiting until a buffer becomes available.
     * If no buffer becomes available within a fixed 
     * time period, then a {@link BufferAbortException} is thrown.
+    * When the pool has several shards, the shard of the new block
+    * is not known until the block is appended, so the block is
+    * first formatted and appended using a separate page, and
+    * the chosen buffer is then formatted the same way;
+    * if no buffer becomes available, the new block remains in the file.
     * @param filename the name of the file
     * @param fmtr the formatter used to initialize the page
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pinNew(String filename, PageFormatter fmtr) {
-      try {
-         long timestamp = System.currentTimeMillis();
-         Buffer buff = bufferMgr.pinNew(filename, fmtr);
-         while (buff == null && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            buff = bufferMgr.pinNew(filename, fmtr);
-         }
+   public Buffer pinNew(String filename, PageFormatter fmtr) {
+      return pinNew(filename, fmtr, null);
+   }
+   
+   /**
+    * Pins a buffer to a new block in the specified file on behalf of a scan
+    * that recycles the buffers of the specified ring.
+    * @see BufferRing
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the page
+    * @param ring the scan's ring, or null
+    * @return the buffer pinned to that block
+    */
+   public Buffer pinNew(String filename, PageFormatter fmtr, BufferRing ring) {
+      BasicBufferMgr[] pool = pool(filename);
+      Buffer buff;
+      if (pool.length > 1)
+         buff = pinAppended(filename, fmtr, ring);
+      else {
+         BasicBufferMgr shard = pool[0];
+         buff = acquire(shard, () -> shard.pinNew(filename, fmtr, ring));
          if (buff == null)
             throw new BufferAbortException();
-         return buff;
       }
-      catch(InterruptedException e) {
-         throw new BufferAbortException();
+      BufferTrace tr = trace;
+      if (tr != null)
+         tr.record(BufferTrace.NEW, buff.block(), ring);
+      return buff;
+   }
+   
+   /**
+    * Pins buffers to a range of consecutive blocks of the specified file,
+    * potentially waiting until enough buffers become available.
+    * The blocks that are not already in the pool are
+    * read with as few I/O requests as possible.
+    * When the pool has several shards, the range is pinned
+    * one run of blocks at a time.
+    * If the buffers do not become available within a fixed 
+    * time period, then a {@link BufferAbortException} is thrown,
+    * and none of the blocks remain pinned.
+    * The same is true if a block cannot be read.
+    * @param filename the name of the file
+    * @param start the number of the first block
+    * @param count the number of blocks
+    * @return the buffers pinned to those blocks, in block order
+    */
+   public Buffer[] pinRange(String filename, int start, int count) {
+      return pinRange(filename, start, count, null);
+   }
+   
+   /**
+    * Pins buffers to a range of consecutive blocks on behalf of a scan
+    * that recycles the buffers of the specified ring.
+    * @see BufferRing
+    * @param filename the name of the file
+    * @param start the number of the first block
+    * @param count the number of blocks
+    * @param ring the scan's ring, or null
+    * @return the buffers pinned to those blocks, in block order
+    */
+   public Buffer[] pinRange(String filename, int start, int count, BufferRing ring) {
+      Buffer[] buffs = new Buffer[count];
+      List<Buffer[]> runs = new ArrayList<Buffer[]>();
+      int done = 0;
+      try {
+         while (done < count) {
+            int n = runLength(filename, start + done, count - done);
+            BasicBufferMgr shard = shard(filename, start + done);
+            int first = start + done;
+            Buffer[] run = acquire(shard, () -> shard.pinRange(filename, first, n, ring));
+            if (run == null)
+               throw new BufferAbortException();
+            System.arraycopy(run, 0, buffs, done, n);
+            runs.add(run);
+            done += n;
+            BufferTrace tr = trace;
+            if (tr != null)
+               for (Buffer buff : run)
+                  tr.record(BufferTrace.PIN, buff.block(), ring);
+         }
+         for (Buffer[] run : runs)
+            load(shard(filename, run[0].block().number()), run);
+         return buffs;
+      }
+      catch (RuntimeException e) {
+         for (int i=0; i<done; i++)
+            unpin(buffs[i]);
+         throw e;
+      }
+   }
+   
+   /**
+    * Reads a range of consecutive blocks of the specified file
+    * into the pool, without pinning them.
+    * The method never waits: it reads at most half of the
+    * currently available buffers' worth of blocks into each shard, and 
+    * skips a shard that has too few available buffers,
+    * or threads waiting for buffers.
+    * Blocks read on behalf of a ring are read only into the ring's
+    * free buffers.
+    * The buffers are chosen while holding the shard's lock, but the blocks
+    * are read after releasing it, as in {@link #pin(Block)}, so a read-ahead
+    * does not hold up the pins of other blocks of the shard;
+    * the buffers stay pinned until their blocks are read.
+    * @param filename the name of the file
+    * @param start the number of the first block
+    * @param count the maximum number of blocks to read
+    */
+   public void prefetch(String filename, int start, int count) {
+      prefetch(filename, start, count, null);
+   }
+   
+   /**
+    * Reads a range of consecutive blocks into the pool on behalf of a scan
+    * that recycles the buffers of the specified ring.
+    * @see BufferRing
+    * @param filename the name of the file
+    * @param start the number of the first block
+    * @param count the maximum number of blocks to read
+    * @param ring the scan's ring, or null
+    */
+   public void prefetch(String filename, int start, int count, BufferRing ring) {
+      int done = 0;
+      while (done < count) {
+         int n = runLength(filename, start + done, count - done);
+         BasicBufferMgr shard = shard(filename, start + done);
+         Buffer[] buffs = null;
+         synchronized (shard) {
+            int m = Math.min(n, shard.available() / 2);
+            if (ring != null)
+               m = Math.min(m, shard.ringRoom(ring));
+            if (m >= 2)
+               buffs = shard.pinRange(filename, start + done, m, ring);
+         }
+         if (buffs != null) {
+            try {
+               load(shard, buffs);
+            }
+            catch (RuntimeException e) {
+               // the blocks will be read when they are pinned
+            }
+            finally {
+               for (Buffer buff : buffs)
+                  shard.unpin(buff);
+            }
+         }
+         done += n;
       }
    }
    
    /**
     * Unpins the specified buffer. 
     * If the buffer's pin count becomes 0,
-    * then the threads on the wait list are notified.
+    * then the thread at the head of the waiting list of its shard is woken up.
     * @param buff the buffer to be unpinned
     */
-   public synchronized void unpin(Buffer buff) {
-      bufferMgr.unpin(buff);
-      if (!buff.isPinned())
-         notifyAll();
+   public void unpin(Buffer buff) {
+      Block blk = buff.block();
+      BufferTrace tr = trace;
+      if (tr != null)
+         tr.record(BufferTrace.UNPIN, blk, null);
+      BasicBufferMgr shard = shard(blk.fileName(), blk.number());
+      shard.unpin(buff);
    }
    
    /**
@@ -111,7 +469,168 @@ public class BufferMgr {
     * @param txnum the transaction's id number
     */
    public void flushAll(int txnum) {
-      bufferMgr.flushAll(txnum);
+      for (BasicBufferMgr shard : shards)
+         shard.flushAll(txnum);
+   }
+   
+   /**
+    * Discards the buffers holding blocks of the specified file,
+    * without writing them to disk.
+    * The method is called when a temporary file is deleted.
+    * Blocks of the file that the read-ahead was about to read are no longer read.
+    * @param filename the name of the file
+    */
+   public void discard(String filename) {
+      BufferTrace tr = trace;
+      if (tr != null)
+         tr.discard(filename);
+      ReadAhead ra = readAhead;
+      if (ra != null)
+         ra.discard(filename);
+      for (BasicBufferMgr shard : shards)
+         shard.discard(filename);
+      fileRoles.remove(filename);
+   }
+
+   /**
+    * Sets the fraction of the unpinned buffers of each shard
+    * that the background writer keeps clean.
+    * The writer is started the first time a positive fraction is set;
+    * a fraction of 0 stops it from writing anything.
+    * @param target the fraction, between 0 and 1
+    */
+   public synchronized void setCleanTarget(double target) {
+      target = Math.max(0, Math.min(1, target));
+      if (writer != null)
+         writer.setTarget(target);
+      else if (target > 0) {
+         writer = new BufferWriter(shards, target);
+         for (BasicBufferMgr shard : shards)
+            shard.setWriter(writer);
+         writer.start();
+      }
+   }
+   
+   /**
+    * Sets the number of blocks that are read ahead of a thread
+    * that pins consecutive blocks of a file.
+    * The read-ahead's I/O threads are started the first time
+    * a positive number is set; a number of 0 stops it from reading anything.
+    * @param blocks the number of blocks
+    */
+   public synchronized void setReadAhead(int blocks) {
+      blocks = Math.max(0, blocks);
+      if (readAhead != null)
+         readAhead.setWindow(blocks);
+      else if (blocks > 0)
+         readAhead = new ReadAhead(this, blocks);
+   }
+   
+   /**
+    * Returns true if the buffer manager reads ahead of threads
+    * that pin consecutive blocks, so that a scan need not
+    * ask for its next blocks itself.
+    * @return true if read-ahead is on
+    */
+   public boolean readsAhead() {
+      ReadAhead ra = readAhead;
+      return ra != null && ra.window() > 0;
+   }
+   
+   /**
+    * Starts recording the blocks that are pinned and unpinned
+    * in the specified trace file, replacing any trace that is
+    * being recorded.
+    * The trace can be replayed by the {@link TraceSimulator}
+    * to compare the hit ratios of the replacement policies
+    * and pool sizes for the recorded workload.
+    * Reads made by the read-ahead and by {@link #prefetch(String, int, int)}
+    * are not recorded, since they are not references to the blocks.
+    * @see BufferTrace
+    * @param file the trace file
+    */
+   public synchronized void startTrace(File file) {
+      try {
+         BufferTrace tr = new BufferTrace(file);
+         stopTrace();
+         trace = tr;
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot create " + file);
+      }
+   }
+   
+   /**
+    * Stops recording the trace, if one is being recorded,
+    * and closes its file.
+    * @return the number of events in the trace, or 0 if there was none
+    */
+   public synchronized long stopTrace() {
+      BufferTrace tr = trace;
+      if (tr == null)
+         return 0;
+      trace = null;
+      tr.close();
+      return tr.events();
+   }
+   
+   /**
+    * Saves the blocks that are currently in the pool in the
+    * snapshot file {@link #RESIDENCY_FILE}, most recently used first,
+    * so that {@link #warmUp()} can read them back after a restart.
+    * The blocks of rings are not saved.
+    */
+   public void saveResidency() {
+      Map<Block,Long> residents = new HashMap<Block,Long>();
+      for (BasicBufferMgr shard : shards)
+         shard.addResidents(residents);
+      List<Block> blocks = new ArrayList<Block>(residents.keySet());
+      Collections.sort(blocks, (b1, b2) -> Long.compare(residents.get(b2), residents.get(b1)));
+      try {
+         BufferWarmer.write(SimpleDB.fileMgr().directoryFile(RESIDENCY_FILE), blocks);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write " + RESIDENCY_FILE);
+      }
+   }
+   
+   /**
+    * Starts reading the blocks of the snapshot file {@link #RESIDENCY_FILE}
+    * into the pool in the background.
+    * The method does nothing if there is no snapshot.
+    */
+   public void warmUp() {
+      File snapshot = SimpleDB.fileMgr().directoryFile(RESIDENCY_FILE);
+      if (snapshot.exists())
+         new BufferWarmer(this, snapshot).start();
+   }
+   
+   /**
+    * Reads those blocks in a range of consecutive blocks of the
+    * specified file that are not in the pool into empty buffers,
+    * without replacing any block.
+    * The blocks are read without holding the lock of their shard.
+    * @param filename the name of the file
+    * @param start the number of the first block
+    * @param count the number of blocks
+    */
+   void warm(String filename, int start, int count) {
+      int done = 0;
+      while (done < count) {
+         int n = runLength(filename, start + done, count - done);
+         BasicBufferMgr shard = shard(filename, start + done);
+         List<Buffer[]> runs = shard.warm(filename, start + done, n);
+         try {
+            for (Buffer[] run : runs)
+               load(shard, run);
+         }
+         finally {
+            for (Buffer[] run : runs)
+               for (Buffer buff : run)
+                  shard.unpin(buff);
+         }
+         done += n;
+      }
    }
    
    /**
@@ -119,15 +638,378 @@ public class BufferMgr {
     * @return the number of available buffers
     */
    public int available() {
-      return bufferMgr.available();
+      int n = 0;
+      for (BasicBufferMgr shard : shards)
+         n += shard.available();
+      return n;
+   }
+   
+   /**
+    * Returns a snapshot of the counters of the buffer pool,
+    * combined over all shards.
+    * @return the counters
+    */
+   public BufferStats stats() {
+      BufferStats total = new BufferStats();
+      for (BasicBufferMgr shard : shards)
+         shard.addStats(total);
+      return total;
+   }
+   
+   /**
+    * Resets the counters of the buffer pool.
+    */
+   public void resetStats() {
+      for (BasicBufferMgr shard : shards)
+         shard.resetStats();
+   }
+   
+   /**
+    * Returns the replacement policy of the buffer pool.
+    * @return the policy number, as passed to the constructor
+    */
+   public int policy() {
+      return rpolicy;
+   }
+   
+   /**
+    * Returns the total number of buffers in the buffer pool.
+    * @return the number of buffers
+    */
+   public int size() {
+      return size(shards);
+   }
+   
+   /**
+    * Grows or shrinks the buffer pool to the specified total number of buffers.
+    * The sub-pools of the index, catalog, and temporary roles keep their sizes,
+    * and the data sub-pool gets the rest of the buffers.
+    * @see #resize(int, int)
+    * @param numbuffers the desired number of buffers
+    * @return the resulting number of buffers, which is more
+    * than requested while some shards are still shrinking
+    * @throws RuntimeException if the data sub-pool would have
+    * fewer buffers than shards
+    */
+   public int resize(int numbuffers) {
+      int others = size() - size(pools[DATA]);
+      resize(DATA, numbuffers - others);
+      return size();
+   }
+   
+   /**
+    * Grows or shrinks the sub-pool of the specified role to the
+    * specified number of buffers, which are divided among its shards as evenly as possible.
+    * A sub-pool cannot be given to a role that did not have one
+    * when the buffer manager was created.
+    * The number of shards does not change, and each must keep at least
+    * one buffer, so the sub-pool cannot have fewer buffers than shards.
+    * Shrinking a shard removes its unpinned buffers at once, writing the dirty ones
+    * to disk; the method does not wait for pinned buffers, which the shard
+    * removes as they are unpinned, until it has shrunk to its share.
+    * Transactions can continue to run while the pool is resized.
+    * @param role the role of the sub-pool
+    * @param numbuffers the desired number of buffers
+    * @return the resulting number of buffers of the sub-pool, which is more
+    * than requested while some of its shards are still shrinking
+    * @throws RuntimeException if the role has no sub-pool of its own,
+    * or if the number of buffers is less than the number of shards of the sub-pool
+    */
+   public int resize(int role, int numbuffers) {
+      BasicBufferMgr[] pool = pools[role];
+      if (role != DATA && pool == pools[DATA])
+         throw new RuntimeException("no sub-pool for role " + role);
+      if (numbuffers < pool.length)
+         throw new RuntimeException("a sub-pool of " + pool.length
+               + " shards needs at least " + pool.length + " buffers");
+      SimpleDB.fileMgr().arena().reserve(numbuffers - size(pool));
+      for (int i=0; i<pool.length; i++) {
+         int n = numbuffers / pool.length + (i < numbuffers % pool.length ? 1 : 0);
+         pool[i].resize(n);
+      }
+      return size(pool);
+   }
+   
+   /**
+    * Returns the number of buffers in the sub-pool of the specified role.
+    * A role that has no sub-pool of its own shares the data sub-pool.
+    * @param role the role
+    * @return the number of buffers
+    */
+   public int size(int role) {
+      return size(pools[role]);
+   }
+   
+   /**
+    * Returns the number of buffers in the sub-pool
+    * that holds the blocks of the specified file.
+    * @param filename the name of the file
+    * @return the number of buffers
+    */
+   public int poolSize(String filename) {
+      return size(pool(filename));
+   }
+   
+   /**
+    * Returns a snapshot of the counters of the sub-pool of the specified role.
+    * A role that has no sub-pool of its own shares the data sub-pool.
+    * @param role the role
+    * @return the counters
+    */
+   public BufferStats stats(int role) {
+      BufferStats total = new BufferStats();
+      for (BasicBufferMgr shard : pools[role])
+         shard.addStats(total);
+      return total;
+   }
+   
+   /**
+    * Returns true if the specified role has a sub-pool of its own.
+    * The data role always does.
+    * @param role the role
+    * @return true if the role does not share the data sub-pool
+    */
+   public boolean hasSubPool(int role) {
+      return role == DATA || pools[role] != pools[DATA];
+   }
+   
+   /**
+    * Returns the shards of the sub-pool of the specified role.
+    * @param role the role
+    * @return the shards of the role's sub-pool
+    */
+   BasicBufferMgr[] shards(int role) {
+      return pools[role];
+   }
+   
+   /**
+    * Returns the shards of the whole buffer pool.
+    * @return every shard of every sub-pool
+    */
+   BasicBufferMgr[] allShards() {
+      return shards;
+   }
+   
+   /**
+    * Registers the name of an index, so that the files of the index
+    * go to the index sub-pool.
+    * An index file is one named after the index as the index's tables are:
+    * the name of the index followed by "leaf" or "dir" (the tables
+    * of a B-tree index) or by a bucket number (those of a hash index).
+    * A file that has already been used keeps its role.
+    * @param idxname the name of the index
+    */
+   public void addIndex(String idxname) {
+      indexNames.add(idxname);
    }
    
-   private boolean waitingTooLong(long starttime) {
-      return System.currentTimeMillis() - starttime > MAX_TIME;
+   /**
+    * Returns the number of shards of the buffer pool.
+    * @return the number of shards
+    */
+   public int shards() {
+      return shards.length;
+   }
+   
+   /**
+    * Returns the shard that holds the specified block.
+    * @param filename the name of the block's file
+    * @param blknum the block number
+    * @return the block's shard
+    */
+   private BasicBufferMgr shard(String filename, int blknum) {
+      BasicBufferMgr[] pool = pool(filename);
+      if (pool.length == 1)
+         return pool[0];
+      int h = filename.hashCode() * 31 + blknum / RUN_BLOCKS;
+      h ^= (h >>> 16);
+      return pool[(h & Integer.MAX_VALUE) % pool.length];
+   }
+   
+   /**
+    * Returns the shards of the sub-pool that holds the blocks of the specified file.
+    * The role of a file other than a temporary table is remembered
+    * the first time it is asked for, and does not change until the
+    * buffers of the file are discarded.
+    * @param filename the name of the file
+    * @return the shards of the file's sub-pool
+    */
+   private BasicBufferMgr[] pool(String filename) {
+      if (!subpools)
+         return shards;
+      if (isTempFile(filename))
+         return pools[TEMP];
+      Integer role = fileRoles.get(filename);
+      if (role == null)
+         role = fileRoles.computeIfAbsent(filename, f -> role(f));
+      return pools[role];
+   }
+   
+   /**
+    * Determines the role of a file that is not a temporary table from its name.
+    * @param filename the name of the file
+    * @return the role of the file
+    */
+   private int role(String filename) {
+      if (CATALOG_FILES.contains(filename))
+         return CATALOG;
+      String tblname = tableName(filename);
+      for (String idxname : indexNames)
+         if (tblname.startsWith(idxname)) {
+            String suffix = tblname.substring(idxname.length());
+            if (suffix.equals("leaf") || suffix.equals("dir") || isNumber(suffix))
+               return INDEX;
+         }
+      return DATA;
+   }
+   
+   /**
+    * Returns true if the specified file holds a temporary table,
+    * whose name is "temp" followed by a number.
+    * @param filename the name of the file
+    * @return true if the file holds a temporary table
+    */
+   private static boolean isTempFile(String filename) {
+      String tblname = tableName(filename);
+      return tblname.startsWith("temp") && isNumber(tblname.substring(4));
+   }
+   
+   /**
+    * Returns the name of the table stored in the specified file.
+    */
+   private static String tableName(String filename) {
+      return filename.endsWith(".tbl") ? filename.substring(0, filename.length() - 4) : filename;
+   }
+   
+   /**
+    * Returns true if the specified string is a nonempty sequence of digits.
+    */
+   private static boolean isNumber(String s) {
+      if (s.isEmpty())
+         return false;
+      for (int i=0; i<s.length(); i++)
+         if (!Character.isDigit(s.charAt(i)))
+            return false;
+      return true;
+   }
+   
+   /**
+    * Returns the total number of buffers in the specified shards.
+    * @param pool the shards
+    * @return the number of buffers
+    */
+   private static int size(BasicBufferMgr[] pool) {
+      int n = 0;
+      for (BasicBufferMgr shard : pool)
+         n += shard.size();
+      return n;
+   }
+   
+   /**
+    * Returns the number of blocks, starting at the specified block,
+    * that belong to the same shard and are within the specified count.
+    * If the file's sub-pool has a single shard, the whole count is returned.
+    */
+   private int runLength(String filename, int blknum, int count) {
+      if (pool(filename).length == 1)
+         return count;
+      return Math.min(count, RUN_BLOCKS - blknum % RUN_BLOCKS);
+   }
+   
+   /**
+    * Appends a new block formatted by the specified formatter
+    * to the file, and then pins a buffer in the block's shard to it.
+    */
+   private Buffer pinAppended(String filename, PageFormatter fmtr, BufferRing ring) {
+      Page page = newPage.get();
+      fmtr.format(page);
+      Block blk = page.append(filename);
+      BasicBufferMgr shard = shard(filename, blk.number());
+      Buffer buff = acquire(shard, () -> shard.pinFormatted(blk, fmtr, ring));
+      if (buff == null)
+         throw new BufferAbortException();
+      try {
+         load(shard, buff); // another thread may have pinned the block first
+      }
+      catch (RuntimeException e) {
+         unpin(buff);
+         throw e;
+      }
+      return buff;
+   }
+   
+   /**
+    * Makes the specified request to a shard while holding the shard's lock.
+    * If the request fails, the calling thread joins the shard's
+    * waiting list, and repeats the request each time it is woken up,
+    * until the request succeeds or {@link #MAX_TIME} has passed.
+    * The thread waits without holding the lock, so a buffer
+    * can be unpinned at any time; since the thread's permit to
+    * continue is kept until it parks, the wakeup is never lost.
+    * If the thread is interrupted, it stops waiting
+    * and keeps its interrupt status.
+    * @param shard the shard
+    * @param request the request, which returns null if it fails
+    * @return the result of the request, or null if it did not succeed in time
+    */
+   private <T> T acquire(BasicBufferMgr shard, Supplier<T> request) {
+      T result;
+      synchronized (shard) {
+         result = request.get();
+         if (result != null)
+            return result;
+         shard.addWaiter(Thread.currentThread());
+      }
+      long waitStart = System.nanoTime();
+      long deadline = waitStart + TimeUnit.MILLISECONDS.toNanos(MAX_TIME);
+      try {
+         while (result == null) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || Thread.currentThread().isInterrupted())
+               break;
+            LockSupport.parkNanos(shard, remaining);
+            synchronized (shard) {
+               result = request.get();
+            }
+         }
+      }
+      finally {
+         synchronized (shard) {
+            shard.removeWaiter(Thread.currentThread());
+            shard.recordWait(System.nanoTime() - waitStart, result == null);
+         }
+      }
+      return result;
+   }
+   
+   /**
+    * Reads the block of a pinned buffer, if it has not been read yet,
+    * without holding the lock of the buffer's shard.
+    * If another thread is reading the block, the method waits for it.
+    */
+   private void load(BasicBufferMgr shard, Buffer buff) {
+      long start = System.nanoTime();
+      if (buff.load())
+         shard.recordRead(System.nanoTime() - start);
+   }
+   
+   /**
+    * Reads the blocks of a run of pinned buffers that have not been read yet,
+    * without holding the lock of the buffers' shard.
+    * If other threads are reading some of the blocks, the method waits for them.
+    * @see Buffer#load(Buffer[])
+    */
+   private void load(BasicBufferMgr shard, Buffer[] run) {
+      long start = System.nanoTime();
+      if (Buffer.load(run) > 0)
+         shard.recordRead(System.nanoTime() - start);
    }
    
    @Override
    public String toString() {
-	   return bufferMgr + " Buffer Timeout: " + MAX_TIME;
+      StringBuilder sb = new StringBuilder();
+      for (BasicBufferMgr shard : shards)
+         sb.append(shard);
+      return sb + " Buffer Timeout: " + MAX_TIME;
    }
 }
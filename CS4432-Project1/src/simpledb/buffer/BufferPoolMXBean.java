@@ -0,0 +1,56 @@
+package simpledb.buffer;
+
+/**
+ * The management interface of the buffer pool.
+ * An implementation is registered with the platform MBean server
+ * under the name {@value BufferPoolMonitor#NAME}
+ * when the system is initialized,
+ * so that the pool can be watched with any JMX client.
+ * Its attributes cover the whole pool; each sub-pool
+ * also has a monitor of its own, as described in {@link BufferSubPoolMXBean}.
+ */
+public interface BufferPoolMXBean extends BufferSubPoolMXBean {
+   /**
+    * Returns the number of bytes of off-heap memory
+    * reserved for pages by the file manager's page arena.
+    * @return the number of bytes
+    */
+   long getArenaBytes();
+
+   /**
+    * Returns the number of block accesses that found
+    * their file's channel already open in the file manager.
+    * @see simpledb.file.FileMgr#channelHits()
+    * @return the number of open-file cache hits
+    */
+   long getChannelHits();
+
+   /**
+    * Returns the number of times that the file manager
+    * had to open a file channel.
+    * @see simpledb.file.FileMgr#channelOpens()
+    * @return the number of channel opens
+    */
+   long getChannelOpens();
+
+   /**
+    * Saves the blocks in the pool, so that they are read back
+    * if the system is restarted before the next save.
+    * @see BufferMgr#saveResidency()
+    */
+   void saveResidency();
+
+   /**
+    * Starts recording the blocks that are pinned and unpinned.
+    * @see BufferMgr#startTrace(java.io.File)
+    * @param filename the name of the trace file in the database directory
+    */
+   void startTrace(String filename);
+
+   /**
+    * Stops recording the blocks that are pinned and unpinned.
+    * @see BufferMgr#stopTrace()
+    * @return the number of events in the trace
+    */
+   long stopTrace();
+}
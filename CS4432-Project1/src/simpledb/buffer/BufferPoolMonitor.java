@@ -0,0 +1,86 @@
+package simpledb.buffer;
+
+import java.lang.management.ManagementFactory;
+import javax.management.*;
+
+import simpledb.server.SimpleDB;
+
+/**
+ * The implementation of {@link BufferPoolMXBean} for a buffer manager.
+ * Each attribute is computed from a fresh snapshot of the
+ * pool's counters, so reading an attribute briefly takes the lock of every shard.
+ */
+public class BufferPoolMonitor extends BufferSubPoolMonitor implements BufferPoolMXBean {
+   /**
+    * The name under which the monitor is registered.
+    */
+   public static final String NAME = "simpledb:type=BufferPool";
+
+   static final String[] POLICIES = { "Default", "LRU", "Clock", "2Q", "LRU-2", "ARC" };
+
+   /**
+    * Creates a monitor for the specified buffer manager.
+    * @param bm the buffer manager
+    */
+   public BufferPoolMonitor(BufferMgr bm) {
+      super(bm, -1);
+   }
+
+   /**
+    * Registers a monitor for the specified buffer manager with the
+    * platform MBean server, together with a monitor for each of its sub-pools,
+    * replacing any monitors registered earlier.
+    * Monitoring is optional, so a failure to register is ignored.
+    * @param bm the buffer manager
+    */
+   public static void register(BufferMgr bm) {
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         for (ObjectName old : server.queryNames(new ObjectName(NAME + ",*"), null))
+            server.unregisterMBean(old);
+         ObjectName name = new ObjectName(NAME);
+         if (server.isRegistered(name))
+            server.unregisterMBean(name);
+         server.registerMBean(new BufferPoolMonitor(bm), name);
+         for (int role=0; role<ROLE_NAMES.length; role++)
+            if (bm.hasSubPool(role))
+               server.registerMBean(new BufferSubPoolMonitor(bm, role),
+                                    new ObjectName(NAME + ",subpool=" + ROLE_NAMES[role]));
+      }
+      catch (JMException e) {}
+      catch (SecurityException e) {}
+   }
+
+   /**
+    * Returns the name of the specified replacement policy.
+    * @param rpolicy the policy number, as passed to {@link BufferMgr}
+    * @return the policy name
+    */
+   static String policyName(int rpolicy) {
+      return (rpolicy >= 2 && rpolicy <= POLICIES.length) ? POLICIES[rpolicy-1] : POLICIES[0];
+   }
+
+   public long getArenaBytes() {
+      return SimpleDB.fileMgr().arena().reservedBytes();
+   }
+
+   public long getChannelHits() {
+      return SimpleDB.fileMgr().channelHits();
+   }
+
+   public long getChannelOpens() {
+      return SimpleDB.fileMgr().channelOpens();
+   }
+
+   public void saveResidency() {
+      bm.saveResidency();
+   }
+
+   public void startTrace(String filename) {
+      bm.startTrace(SimpleDB.fileMgr().directoryFile(filename));
+   }
+
+   public long stopTrace() {
+      return bm.stopTrace();
+   }
+}
@@ -0,0 +1,173 @@
+package simpledb.buffer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small private set of buffers that a bulk operation recycles,
+ * so that it does not replace the rest of the buffer pool.
+ * A sequential scan of a large table, or the writing of a temporary
+ * table, passes its ring to the buffer manager whenever it pins a block.
+ * When the block is not in the pool, the buffer manager reuses the
+ * ring's next buffer if it is unpinned, and otherwise takes a buffer
+ * from the pool as usual and adds it to the ring in place of that buffer,
+ * which goes back to the pool.
+ * <p>
+ * A buffer in a ring is invisible to the replacement policy of its shard.
+ * If another pin finds the buffer's block in the pool,
+ * the buffer leaves the ring and becomes an ordinary buffer,
+ * since its block is evidently useful to someone else.
+ * <p>
+ * The ring holds up to {@link #RING_SIZE} buffers of each shard,
+ * but never more than a quarter of a shard's buffers;
+ * a shard that is too small for a ring is used as if there were no ring.
+ * When a shard is resized, the ring's part for it is resized to match,
+ * and the oldest buffers that no longer fit go back to the pool.
+ * A ring is used by one scan, and by the read-ahead on the scan's behalf;
+ * the part of each shard is handled while holding the shard's lock.
+ */
+public class BufferRing {
+   /**
+    * The maximum number of buffers of each shard in a ring.
+    */
+   public static final int RING_SIZE = 16;
+
+   private Buffer[][] frames = new Buffer[0][];
+   private int[] hands = new int[0];
+
+   /**
+    * Returns true if the ring has a part for the specified shard,
+    * that is, if the shard is large enough for a ring.
+    * @param shard the index of the shard
+    * @param shardsize the number of buffers in the shard
+    * @return true if the ring can hold buffers of the shard
+    */
+   boolean enabled(int shard, int shardsize) {
+      return part(shard, shardsize).length > 0;
+   }
+
+   /**
+    * Returns the buffer at the hand of the ring's part for the specified shard,
+    * without moving the hand.
+    * @param shard the index of the shard
+    * @param shardsize the number of buffers in the shard
+    * @return the buffer, or null if the ring has no buffer there
+    */
+   synchronized Buffer current(int shard, int shardsize) {
+      Buffer[] part = part(shard, shardsize);
+      return (part.length == 0) ? null : part[hands[shard]];
+   }
+
+   /**
+    * Puts the specified buffer at the hand of the ring's part for the
+    * specified shard, and moves the hand to the next position.
+    * Returns the buffer that was replaced, which the caller must return to the pool.
+    * If the buffer is still at another position, because it left the ring
+    * and has come back, that position is cleared, so that
+    * the ring never holds a buffer twice.
+    * The shard must be large enough for a ring.
+    * @param shard the index of the shard
+    * @param shardsize the number of buffers in the shard
+    * @param buff the buffer to add
+    * @return the replaced buffer, or null
+    */
+   synchronized Buffer replace(int shard, int shardsize, Buffer buff) {
+      Buffer[] part = part(shard, shardsize);
+      for (int i=0; i<part.length; i++)
+         if (part[i] == buff)
+            part[i] = null;
+      int hand = hands[shard];
+      Buffer old = part[hand];
+      part[hand] = buff;
+      hands[shard] = (hand + 1) % part.length;
+      return old;
+   }
+
+   /**
+    * Returns the number of buffers that can be added to the ring's part
+    * for the specified shard, starting at the hand, before reaching
+    * a buffer of the ring that is still pinned.
+    * Prefetching on behalf of the ring reads no more blocks than this,
+    * so that it does not take buffers from the rest of the pool.
+    * @param shard the index of the shard
+    * @param shardsize the number of buffers in the shard
+    * @return the number of buffers
+    */
+   synchronized int room(int shard, int shardsize) {
+      Buffer[] part = part(shard, shardsize);
+      int n = 0;
+      while (n < part.length) {
+         Buffer buff = part[(hands[shard] + n) % part.length];
+         if (buff != null && buff.ring == this && buff.isPinned())
+            break;
+         n++;
+      }
+      return n;
+   }
+
+   /**
+    * Moves the hand of the ring's part for the specified shard
+    * to the next position.
+    * @param shard the index of the shard
+    */
+   synchronized void advance(int shard) {
+      hands[shard] = (hands[shard] + 1) % frames[shard].length;
+   }
+
+   /**
+    * Resizes the ring's part for the specified shard to suit the
+    * shard's number of buffers, if it does not already.
+    * The most recently added buffers of the ring are kept, in order,
+    * and the hand is moved to the oldest of them;
+    * the others leave the ring, and are returned so that
+    * the caller can give them back to the replacement policy.
+    * The shard calls this method whenever it is resized,
+    * while holding its lock.
+    * @param shard the index of the shard
+    * @param shardsize the number of buffers in the shard
+    * @return the buffers that left the ring
+    */
+   synchronized List<Buffer> fit(int shard, int shardsize) {
+      List<Buffer> dropped = new ArrayList<Buffer>();
+      if (shard >= frames.length) {
+         Buffer[][] newframes = new Buffer[shard + 1][];
+         int[] newhands = new int[shard + 1];
+         System.arraycopy(frames, 0, newframes, 0, frames.length);
+         System.arraycopy(hands, 0, newhands, 0, hands.length);
+         frames = newframes;
+         hands = newhands;
+      }
+      int size = Math.min(RING_SIZE, shardsize / 4);
+      Buffer[] part = frames[shard];
+      if (part != null && part.length == size)
+         return dropped;
+      List<Buffer> members = new ArrayList<Buffer>();
+      if (part != null)
+         for (int i=0; i<part.length; i++) {
+            Buffer buff = part[(hands[shard] + i) % part.length]; // from the oldest to the newest
+            if (buff != null && buff.ring == this)
+               members.add(buff);
+         }
+      while (members.size() > size) {
+         Buffer buff = members.remove(0);
+         buff.ring = null;
+         dropped.add(buff);
+      }
+      frames[shard] = members.toArray(new Buffer[size]);
+      hands[shard] = (size == 0) ? 0 : members.size() % size;
+      return dropped;
+   }
+
+   /**
+    * Returns the ring's part for the specified shard,
+    * creating it, or resizing it if the shard has been resized
+    * since the ring last used it.
+    * @param shard the index of the shard
+    * @param shardsize the number of buffers in the shard
+    * @return the part
+    */
+   private synchronized Buffer[] part(int shard, int shardsize) {
+      fit(shard, shardsize);
+      return frames[shard];
+   }
+}
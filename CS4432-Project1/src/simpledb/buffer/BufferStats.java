@@ -0,0 +1,130 @@
+package simpledb.buffer;
+
+/**
+ * Counters describing the behavior of the buffer pool.
+ * Each shard of the pool keeps its own counters, which it updates
+ * while holding its lock; {@link BufferMgr#stats()} returns a
+ * snapshot that combines the counters of all shards.
+ * <p>
+ * A pin is a hit if the block was already in the pool, and a miss if it had to be read.
+ * Pinning a new block is neither.
+ * An eviction is the replacement of a buffer holding a block;
+ * if the buffer was dirty, its page had to be written first, which
+ * is what the {@link BufferWriter background writer} tries to avoid.
+ */
+public class BufferStats {
+   long hits, misses, evictions, dirtyEvictions;
+   long commitWrites, writerWrites;
+   long aborts;
+   LatencyHistogram readTime = new LatencyHistogram();
+   LatencyHistogram pinWait = new LatencyHistogram();
+
+   BufferStats() {}
+
+   /**
+    * Adds the counters of another object to this one.
+    * @param s the other counters
+    */
+   void add(BufferStats s) {
+      hits += s.hits;
+      misses += s.misses;
+      evictions += s.evictions;
+      dirtyEvictions += s.dirtyEvictions;
+      commitWrites += s.commitWrites;
+      writerWrites += s.writerWrites;
+      aborts += s.aborts;
+      readTime.add(s.readTime);
+      pinWait.add(s.pinWait);
+   }
+
+   /**
+    * Returns the number of pins of blocks that were already in the pool.
+    * @return the number of hits
+    */
+   public long hits() {
+      return hits;
+   }
+
+   /**
+    * Returns the number of pins of blocks that had to be read.
+    * @return the number of misses
+    */
+   public long misses() {
+      return misses;
+   }
+
+   /**
+    * Returns the fraction of pins that were hits.
+    * @return the hit ratio, or 0 if there were no pins
+    */
+   public double hitRatio() {
+      long n = hits + misses;
+      return (n == 0) ? 0 : (double) hits / n;
+   }
+
+   /**
+    * Returns the number of buffers that were replaced.
+    * @return the number of evictions
+    */
+   public long evictions() {
+      return evictions;
+   }
+
+   /**
+    * Returns the number of replaced buffers that had to be written first.
+    * @return the number of dirty evictions
+    */
+   public long dirtyEvictions() {
+      return dirtyEvictions;
+   }
+
+   /**
+    * Returns the number of pages written when transactions committed
+    * or rolled back.
+    * @return the number of commit writes
+    */
+   public long commitWrites() {
+      return commitWrites;
+   }
+
+   /**
+    * Returns the number of pages written by the background writer.
+    * @return the number of writer writes
+    */
+   public long writerWrites() {
+      return writerWrites;
+   }
+
+   /**
+    * Returns the number of pins that gave up waiting for a buffer.
+    * @return the number of aborted pins
+    */
+   public long aborts() {
+      return aborts;
+   }
+
+   /**
+    * Returns the histogram of the time taken to read the blocks of misses.
+    * @return the read-time histogram
+    */
+   public LatencyHistogram readTime() {
+      return readTime;
+   }
+
+   /**
+    * Returns the histogram of the time that pins spent
+    * waiting for a buffer to become available.
+    * Only pins that had to wait are recorded.
+    * @return the pin-wait histogram
+    */
+   public LatencyHistogram pinWait() {
+      return pinWait;
+   }
+
+   public String toString() {
+      return "hits=" + hits + " misses=" + misses
+            + " evictions=" + evictions + " dirty=" + dirtyEvictions
+            + " commitWrites=" + commitWrites + " writerWrites=" + writerWrites
+            + " waits=" + pinWait.count() + " aborts=" + aborts;
+   }
+}
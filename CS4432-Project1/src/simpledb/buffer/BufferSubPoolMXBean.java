@@ -0,0 +1,173 @@
+package simpledb.buffer;
+
+/**
+ * The management interface of a part of the buffer pool:
+ * the whole pool (see {@link BufferPoolMXBean}), or the
+ * sub-pool of one role.
+ * The monitor of a sub-pool is registered with the platform MBean server
+ * under the name {@value BufferPoolMonitor#NAME}<code>,subpool=</code><i>role</i>,
+ * where the role is <code>data</code>, <code>index</code>, <code>catalog</code>,
+ * or <code>temp</code>; a role that shares the data sub-pool has no monitor.
+ * The counters accumulate from the start of the system,
+ * or from the last call to {@link #resetStats()}.
+ * Latencies are histograms with logarithmic buckets, as described
+ * in {@link LatencyHistogram}.
+ * The per-shard attributes are arrays indexed by the position of the shard
+ * in the part of the pool.
+ */
+public interface BufferSubPoolMXBean {
+   /**
+    * Returns the name of the role whose files use the pool,
+    * or "all" for the whole buffer pool.
+    * @return the role name
+    */
+   String getRole();
+
+   /**
+    * Returns the name of the replacement policy.
+    * @return the policy name
+    */
+   String getPolicy();
+
+   /**
+    * Returns the number of buffers in the pool.
+    * @return the number of buffers
+    */
+   int getBuffers();
+
+   /**
+    * Returns the number of shards of the pool.
+    * @return the number of shards
+    */
+   int getShards();
+
+   /**
+    * Returns the number of unpinned buffers.
+    * @return the number of available buffers
+    */
+   int getAvailable();
+
+   /**
+    * Returns the number of pins of blocks that were already in the pool.
+    * @return the number of hits
+    */
+   long getHits();
+
+   /**
+    * Returns the number of pins of blocks that had to be read.
+    * @return the number of misses
+    */
+   long getMisses();
+
+   /**
+    * Returns the fraction of pins that were hits.
+    * @return the hit ratio
+    */
+   double getHitRatio();
+
+   /**
+    * Returns the number of buffers that were replaced.
+    * @return the number of evictions
+    */
+   long getEvictions();
+
+   /**
+    * Returns the number of replaced buffers that had to be written first.
+    * @return the number of dirty evictions
+    */
+   long getDirtyEvictions();
+
+   /**
+    * Returns the number of pages written at commit or rollback.
+    * @return the number of commit writes
+    */
+   long getCommitWrites();
+
+   /**
+    * Returns the number of pages written by the background writer.
+    * @return the number of writer writes
+    */
+   long getWriterWrites();
+
+   /**
+    * Returns the number of pins that had to wait for a buffer.
+    * @return the number of waits
+    */
+   long getPinWaits();
+
+   /**
+    * Returns the number of pins that gave up waiting for a buffer.
+    * @return the number of aborted pins
+    */
+   long getPinAborts();
+
+   /**
+    * Returns the total time that pins spent waiting for a buffer.
+    * @return the waiting time in milliseconds
+    */
+   long getPinWaitMillis();
+
+   /**
+    * Returns an upper bound of the 99th percentile of pin waits.
+    * @return the bound in microseconds
+    */
+   long getPinWaitP99Micros();
+
+   /**
+    * Returns the histogram of pin waits.
+    * @return the bucket counts
+    */
+   long[] getPinWaitHistogram();
+
+   /**
+    * Returns an upper bound of the 99th percentile of the
+    * time taken to read the blocks of misses.
+    * @return the bound in microseconds
+    */
+   long getReadTimeP99Micros();
+
+   /**
+    * Returns the histogram of the time taken to read the blocks of misses.
+    * @return the bucket counts
+    */
+   long[] getReadTimeHistogram();
+
+   /**
+    * Returns the number of hits of each shard.
+    * @return the hits, indexed by shard
+    */
+   long[] getShardHits();
+
+   /**
+    * Returns the number of misses of each shard.
+    * @return the misses, indexed by shard
+    */
+   long[] getShardMisses();
+
+   /**
+    * Returns the number of unpinned buffers of each shard.
+    * @return the available buffers, indexed by shard
+    */
+   int[] getShardAvailable();
+
+   /**
+    * Describes each shard: its size, its counters,
+    * and the block held by each of its buffers.
+    * @return the descriptions, indexed by shard
+    */
+   String[] describeShards();
+
+   /**
+    * Resets the counters.
+    */
+   void resetStats();
+
+   /**
+    * Grows or shrinks the pool.
+    * @see BufferMgr#resize(int)
+    * @see BufferMgr#resize(int, int)
+    * @param numbuffers the desired number of buffers
+    * @return the resulting number of buffers
+    */
+   int resize(int numbuffers);
+}
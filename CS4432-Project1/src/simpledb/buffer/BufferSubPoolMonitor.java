@@ -0,0 +1,166 @@
+package simpledb.buffer;
+
+/**
+ * The implementation of {@link BufferSubPoolMXBean} for the sub-pool
+ * of one role of a buffer manager.
+ * Each attribute is computed from a fresh snapshot of the
+ * sub-pool's counters, so reading an attribute briefly takes the lock of each of its shards.
+ */
+public class BufferSubPoolMonitor implements BufferSubPoolMXBean {
+   static final String[] ROLE_NAMES = { "data", "index", "catalog", "temp" };
+
+   BufferMgr bm;
+   private int role; // the role of the sub-pool, or -1 for the whole pool
+
+   /**
+    * Creates a monitor for the sub-pool of the specified role.
+    * @param bm the buffer manager
+    * @param role the role, or -1 for the whole pool
+    */
+   BufferSubPoolMonitor(BufferMgr bm, int role) {
+      this.bm = bm;
+      this.role = role;
+   }
+
+   /**
+    * Returns the shards of the monitored part of the pool.
+    * @return the shards
+    */
+   private BasicBufferMgr[] shards() {
+      return (role < 0) ? bm.allShards() : bm.shards(role);
+   }
+
+   /**
+    * Returns a snapshot of the counters of the monitored part of the pool.
+    * @return the counters
+    */
+   private BufferStats stats() {
+      return (role < 0) ? bm.stats() : bm.stats(role);
+   }
+
+   public String getRole() {
+      return (role < 0) ? "all" : ROLE_NAMES[role];
+   }
+
+   public String getPolicy() {
+      return BufferPoolMonitor.policyName((role < 0) ? bm.policy() : shards()[0].policy());
+   }
+
+   public int getBuffers() {
+      return (role < 0) ? bm.size() : bm.size(role);
+   }
+
+   public int getShards() {
+      return shards().length;
+   }
+
+   public int getAvailable() {
+      int n = 0;
+      for (BasicBufferMgr shard : shards())
+         n += shard.available();
+      return n;
+   }
+
+   public long getHits() {
+      return stats().hits();
+   }
+
+   public long getMisses() {
+      return stats().misses();
+   }
+
+   public double getHitRatio() {
+      return stats().hitRatio();
+   }
+
+   public long getEvictions() {
+      return stats().evictions();
+   }
+
+   public long getDirtyEvictions() {
+      return stats().dirtyEvictions();
+   }
+
+   public long getCommitWrites() {
+      return stats().commitWrites();
+   }
+
+   public long getWriterWrites() {
+      return stats().writerWrites();
+   }
+
+   public long getPinWaits() {
+      return stats().pinWait().count();
+   }
+
+   public long getPinAborts() {
+      return stats().aborts();
+   }
+
+   public long getPinWaitMillis() {
+      return stats().pinWait().totalNanos() / 1000000;
+   }
+
+   public long getPinWaitP99Micros() {
+      return stats().pinWait().percentileMicros(99);
+   }
+
+   public long[] getPinWaitHistogram() {
+      return stats().pinWait().counts();
+   }
+
+   public long getReadTimeP99Micros() {
+      return stats().readTime().percentileMicros(99);
+   }
+
+   public long[] getReadTimeHistogram() {
+      return stats().readTime().counts();
+   }
+
+   public long[] getShardHits() {
+      BasicBufferMgr[] shards = shards();
+      long[] hits = new long[shards.length];
+      for (int i=0; i<shards.length; i++) {
+         BufferStats s = new BufferStats();
+         shards[i].addStats(s);
+         hits[i] = s.hits();
+      }
+      return hits;
+   }
+
+   public long[] getShardMisses() {
+      BasicBufferMgr[] shards = shards();
+      long[] misses = new long[shards.length];
+      for (int i=0; i<shards.length; i++) {
+         BufferStats s = new BufferStats();
+         shards[i].addStats(s);
+         misses[i] = s.misses();
+      }
+      return misses;
+   }
+
+   public int[] getShardAvailable() {
+      BasicBufferMgr[] shards = shards();
+      int[] available = new int[shards.length];
+      for (int i=0; i<shards.length; i++)
+         available[i] = shards[i].available();
+      return available;
+   }
+
+   public String[] describeShards() {
+      BasicBufferMgr[] shards = shards();
+      String[] descriptions = new String[shards.length];
+      for (int i=0; i<shards.length; i++)
+         descriptions[i] = shards[i].toString();
+      return descriptions;
+   }
+
+   public void resetStats() {
+      for (BasicBufferMgr shard : shards())
+         shard.resetStats();
+   }
+
+   public int resize(int numbuffers) {
+      return (role < 0) ? bm.resize(numbuffers) : bm.resize(role, numbuffers);
+   }
+}
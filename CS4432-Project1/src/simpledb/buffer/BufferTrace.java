@@ -0,0 +1,280 @@
+package simpledb.buffer;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import simpledb.file.Block;
+
+/**
+ * A recording of the block references made to a buffer manager.
+ * While a trace is being recorded (see {@link BufferMgr#startTrace(File)}),
+ * the buffer manager appends an event to it for each block that is pinned,
+ * each new block that is pinned, each block that is unpinned,
+ * and each file whose buffers are discarded, in the order in which
+ * they happen.
+ * A pin made through a {@link BufferRing} also records the ring,
+ * so that the replay recycles the same buffers as the running system.
+ * A trace can be replayed offline by the {@link TraceSimulator}.
+ * <p>
+ * The trace is a compact binary file. It starts with an integer
+ * that identifies it, followed by the events.
+ * Each event is a one-byte code; the name of a file is written once,
+ * the first time that it is referenced, and later events refer to
+ * it by its position among the names, so that a pin or unpin typically
+ * takes three or four bytes.
+ * A pin through a ring has the {@link #RING} bit set in its code,
+ * and is followed by the number of the ring; rings are numbered in
+ * the order in which they are first used.
+ * Numbers are written seven bits per byte, low bits first.
+ * A trace that was cut short by a crash can still be replayed up to its last
+ * complete event.
+ */
+class BufferTrace {
+   static final int PIN = 1;
+   static final int NEW = 2;
+   static final int UNPIN = 3;
+   static final int DISCARD = 4;
+   static final int RING = 0x08;
+   private static final int FILE = 0;
+   private static final int MAGIC = 0x53445452; // identifies a trace file
+
+   private DataOutputStream out;
+   private Map<String,Integer> fileIds = new HashMap<String,Integer>();
+   private Map<BufferRing,Integer> ringIds = new WeakHashMap<BufferRing,Integer>();
+   private int rings;
+   private long events;
+   private Thread closer = new Thread("simpledb buffer trace closer") {
+      public void run() {
+         close();
+      }
+   };
+
+   /**
+    * Creates a trace in the specified file, replacing
+    * any existing one.
+    * The trace is closed when the system shuts down,
+    * if it has not been closed before.
+    * @param file the trace file
+    * @throws IOException if the file cannot be created
+    */
+   BufferTrace(File file) throws IOException {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+      out.writeInt(MAGIC);
+      Runtime.getRuntime().addShutdownHook(closer);
+   }
+
+   /**
+    * Appends a reference to the specified block.
+    * @param op the kind of event: {@link #PIN}, {@link #NEW}, or {@link #UNPIN}
+    * @param blk the block
+    * @param ring the ring through which the block is pinned, or null
+    */
+   synchronized void record(int op, Block blk, BufferRing ring) {
+      if (out == null)
+         return;
+      try {
+         int id = fileId(blk.fileName());
+         out.writeByte((ring == null) ? op : op | RING);
+         writeNumber(id);
+         writeNumber(blk.number());
+         if (ring != null)
+            writeNumber(ringIds.computeIfAbsent(ring, r -> rings++));
+         events++;
+      }
+      catch (IOException e) {
+         stopRecording();
+      }
+   }
+
+   /**
+    * Appends the discarding of the buffers of the specified file.
+    * @param filename the name of the file
+    */
+   synchronized void discard(String filename) {
+      if (out == null)
+         return;
+      try {
+         int id = fileId(filename);
+         out.writeByte(DISCARD);
+         writeNumber(id);
+         events++;
+      }
+      catch (IOException e) {
+         stopRecording();
+      }
+   }
+
+   /**
+    * Returns the number of events recorded so far.
+    * @return the number of events
+    */
+   synchronized long events() {
+      return events;
+   }
+
+   /**
+    * Writes the rest of the trace to its file and closes it.
+    * Events recorded afterwards are ignored.
+    */
+   synchronized void close() {
+      if (out == null)
+         return;
+      try {
+         out.close();
+      }
+      catch (IOException e) {
+         // the trace ends at the last event that was written
+      }
+      out = null;
+      try {
+         Runtime.getRuntime().removeShutdownHook(closer);
+      }
+      catch (IllegalStateException e) {
+         // the system is already shutting down
+      }
+   }
+
+   /**
+    * Stops recording after a write error, keeping
+    * the events that were written.
+    */
+   private void stopRecording() {
+      try {
+         out.close();
+      }
+      catch (IOException e) {
+      }
+      out = null;
+   }
+
+   /**
+    * Returns the position of the specified file among the names
+    * in the trace, appending the name if it is new.
+    * @param filename the name of the file
+    * @return the file's position
+    * @throws IOException
+    */
+   private int fileId(String filename) throws IOException {
+      Integer id = fileIds.get(filename);
+      if (id == null) {
+         id = fileIds.size();
+         fileIds.put(filename, id);
+         out.writeByte(FILE);
+         out.writeUTF(filename);
+      }
+      return id;
+   }
+
+   private void writeNumber(int n) throws IOException {
+      while ((n & ~0x7f) != 0) {
+         out.writeByte((n & 0x7f) | 0x80);
+         n >>>= 7;
+      }
+      out.writeByte(n);
+   }
+
+   /**
+    * Reads the events of a trace file, one at a time.
+    */
+   static class Reader {
+      private DataInputStream in;
+      private List<String> files = new ArrayList<String>();
+      private Block blk;
+      private String filename;
+      private int ring;
+
+      /**
+       * Opens the specified trace file.
+       * @param file the trace file
+       * @throws IOException if the file cannot be read or is not a trace
+       */
+      Reader(File file) throws IOException {
+         in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+         if (in.readInt() != MAGIC) {
+            in.close();
+            throw new IOException(file + " is not a buffer trace");
+         }
+      }
+
+      /**
+       * Reads the next event.
+       * The event's block, file, and ring are then available from
+       * {@link #block()}, {@link #fileName()}, and {@link #ring()}.
+       * @return the kind of event, or -1 at the end of the trace
+       * @throws IOException if the file cannot be read
+       */
+      int next() throws IOException {
+         try {
+            while (true) {
+               int op = in.readUnsignedByte();
+               if (op == FILE) {
+                  files.add(in.readUTF());
+                  continue;
+               }
+               int id = readNumber();
+               if (id >= files.size())
+                  throw new IOException("corrupt buffer trace");
+               filename = files.get(id);
+               int kind = op & ~RING;
+               if (kind == DISCARD)
+                  blk = null;
+               else if (kind == PIN || kind == NEW || kind == UNPIN)
+                  blk = new Block(filename, readNumber());
+               else
+                  throw new IOException("corrupt buffer trace");
+               ring = (op == kind) ? -1 : readNumber();
+               return kind;
+            }
+         }
+         catch (EOFException e) {
+            return -1;
+         }
+      }
+
+      /**
+       * Returns the block of the current pin or unpin event.
+       * @return the block
+       */
+      Block block() {
+         return blk;
+      }
+
+      /**
+       * Returns the name of the file of the current event.
+       * @return the file name
+       */
+      String fileName() {
+         return filename;
+      }
+
+      /**
+       * Returns the number of the ring of the current pin event.
+       * @return the ring's number, or -1 if the block was not pinned through a ring
+       */
+      int ring() {
+         return ring;
+      }
+
+      /**
+       * Closes the trace file.
+       * @throws IOException
+       */
+      void close() throws IOException {
+         in.close();
+      }
+
+      private int readNumber() throws IOException {
+         int n = 0;
+         for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            n |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+               return n;
+         }
+      }
+   }
+}
@@ -0,0 +1,176 @@
+package simpledb.buffer;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+/**
+ * The background thread that warms up a buffer pool after a restart.
+ * When the system shuts down, the buffer manager saves the blocks
+ * that are in the pool in a snapshot file, hottest first
+ * (see {@link BufferMgr#saveResidency()}).
+ * When the system starts again, the warmer reads the snapshot and
+ * reads its blocks back into the pool, so that the first queries
+ * find the catalog tables, index roots, and other frequently used
+ * blocks already there instead of each paying for its own misses.
+ * <p>
+ * The blocks are read in runs of consecutive blocks, using a single
+ * I/O request per run, and the runs holding the hottest blocks are read first.
+ * Blocks are read only into empty buffers, so the warmer never
+ * replaces a block that the running system has read meanwhile,
+ * and it gives way to any thread that is waiting for a buffer.
+ * The snapshot is only a hint: blocks whose files have since
+ * been deleted or shortened are skipped, and a missing or
+ * unreadable snapshot just means that the pool starts cold.
+ */
+class BufferWarmer extends Thread {
+   private static final int MAGIC = 0x53444257; // identifies a snapshot file
+
+   private BufferMgr bufferMgr;
+   private File snapshot;
+
+   /**
+    * Creates a warmer that reads the blocks of the specified
+    * snapshot into the pool of the specified buffer manager.
+    * The warmer must be started by the caller.
+    * @param bufferMgr the buffer manager
+    * @param snapshot the snapshot file
+    */
+   BufferWarmer(BufferMgr bufferMgr, File snapshot) {
+      super("simpledb buffer warmer");
+      this.bufferMgr = bufferMgr;
+      this.snapshot = snapshot;
+      setDaemon(true);
+   }
+
+   public void run() {
+      FileMgr fm = SimpleDB.fileMgr();
+      List<Block> blocks = read(snapshot);
+      if (blocks.size() > bufferMgr.size())
+         blocks = blocks.subList(0, bufferMgr.size());
+      // remember how hot each block is, then put the blocks in file order
+      Map<Block,Integer> rank = new HashMap<Block,Integer>();
+      List<Block> present = new ArrayList<Block>();
+      for (Block blk : blocks)
+         if (!rank.containsKey(blk) && fm.exists(blk.fileName())
+               && blk.number() < fm.size(blk.fileName())) {
+            rank.put(blk, rank.size());
+            present.add(blk);
+         }
+      Collections.sort(present, new Comparator<Block>() {
+         public int compare(Block b1, Block b2) {
+            int c = b1.fileName().compareTo(b2.fileName());
+            return (c != 0) ? c : Integer.compare(b1.number(), b2.number());
+         }
+      });
+      // group them into runs that can each be read with one request,
+      // and read the run holding the hottest block first
+      List<Block[]> runs = new ArrayList<Block[]>(); // the first and last block of each run
+      List<Integer> hottest = new ArrayList<Integer>();
+      for (Block blk : present) {
+         int last = runs.size() - 1;
+         if (last >= 0 && follows(blk, runs.get(last)[1])) {
+            runs.get(last)[1] = blk;
+            hottest.set(last, Math.min(hottest.get(last), rank.get(blk)));
+         }
+         else {
+            runs.add(new Block[] { blk, blk });
+            hottest.add(rank.get(blk));
+         }
+      }
+      Integer[] order = new Integer[runs.size()];
+      for (int i=0; i<order.length; i++)
+         order[i] = i;
+      Arrays.sort(order, Comparator.comparing(hottest::get));
+      try {
+         for (int i : order) {
+            Block first = runs.get(i)[0];
+            int count = runs.get(i)[1].number() - first.number() + 1;
+            bufferMgr.warm(first.fileName(), first.number(), count);
+         }
+      }
+      catch (RuntimeException e) {
+         // the blocks will be read when they are needed,
+         // and an I/O error will then be reported to the transaction
+      }
+   }
+
+   /**
+    * Returns true if the specified block immediately follows
+    * the other block in the same file.
+    * @param blk the block
+    * @param prev the other block
+    * @return true if the blocks are consecutive
+    */
+   private static boolean follows(Block blk, Block prev) {
+      return blk.fileName().equals(prev.fileName())
+            && blk.number() == prev.number() + 1;
+   }
+
+   /**
+    * Writes the specified blocks to a snapshot file.
+    * The file is replaced as a whole, so that a crash while
+    * it is being written leaves the previous snapshot intact.
+    * @param snapshot the snapshot file
+    * @param blocks the blocks, hottest first
+    * @throws IOException
+    */
+   static void write(File snapshot, List<Block> blocks) throws IOException {
+      File tmp = new File(snapshot.getPath() + ".new");
+      DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmp)));
+      try {
+         out.writeInt(MAGIC);
+         out.writeInt(blocks.size());
+         for (Block blk : blocks) {
+            out.writeUTF(blk.fileName());
+            out.writeInt(blk.number());
+         }
+      }
+      finally {
+         out.close();
+      }
+      Files.move(tmp.toPath(), snapshot.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   /**
+    * Reads the blocks of a snapshot file.
+    * @param snapshot the snapshot file
+    * @return the blocks, hottest first, or an empty list if the file
+    * does not exist or is not a valid snapshot
+    */
+   static List<Block> read(File snapshot) {
+      List<Block> blocks = new ArrayList<Block>();
+      try {
+         DataInputStream in = new DataInputStream(
+               new BufferedInputStream(new FileInputStream(snapshot)));
+         try {
+            if (in.readInt() != MAGIC)
+               return blocks;
+            int n = in.readInt();
+            for (int i=0; i<n; i++) {
+               String filename = in.readUTF();
+               blocks.add(new Block(filename, in.readInt()));
+            }
+         }
+         finally {
+            in.close();
+         }
+      }
+      catch (IOException e) {
+         // a missing or truncated snapshot: use whatever was read
+      }
+      return blocks;
+   }
+}
@@ -0,0 +1,82 @@
+package simpledb.buffer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The background writer of a buffer pool.
+ * The writer keeps a target fraction of the unpinned buffers
+ * of each shard clean, so that a thread that needs a buffer
+ * seldom has to write a dirty page before it can read its own block.
+ * <p>
+ * The writer wakes up periodically, and whenever a shard
+ * has to write a dirty buffer in order to replace it. For each shard, it asks for the dirty unpinned
+ * buffers that would have to be written to reach the target,
+ * and writes them in block order, without holding the shard's lock.
+ * Each buffer is written by {@link Buffer#flush()}, which
+ * forces the log up to the buffer's LSN first.
+ * Since the buffer's monitor guards its page and its block,
+ * a buffer that is pinned, modified, or even reassigned to another block
+ * after being chosen is still handled correctly:
+ * the writer simply writes whatever the buffer holds, if it is dirty.
+ */
+class BufferWriter extends Thread {
+   private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+   private BasicBufferMgr[] shards;
+   private volatile double target;
+
+   /**
+    * Creates a writer for the specified shards.
+    * The writer must be started by the caller.
+    * @param shards the shards of the buffer pool
+    * @param target the fraction of unpinned buffers to keep clean
+    */
+   BufferWriter(BasicBufferMgr[] shards, double target) {
+      super("simpledb buffer writer");
+      this.shards = shards;
+      this.target = target;
+      setDaemon(true);
+   }
+
+   /**
+    * Changes the fraction of unpinned buffers to keep clean.
+    * @param target the new fraction
+    */
+   void setTarget(double target) {
+      this.target = target;
+   }
+
+   /**
+    * Asks the writer to check the shards without waiting
+    * for the rest of its interval.
+    */
+   void wake() {
+      LockSupport.unpark(this);
+   }
+
+   public void run() {
+      while (true) {
+         LockSupport.parkNanos(this, INTERVAL);
+         for (BasicBufferMgr shard : shards) {
+            try {
+               clean(shard);
+            }
+            catch (RuntimeException e) {
+               // the page will be written when the buffer is replaced;
+               // an I/O error will then be reported to the transaction
+            }
+         }
+      }
+   }
+
+   private void clean(BasicBufferMgr shard) {
+      Buffer[] dirty = shard.cleaningCandidates(target);
+      int written = 0;
+      for (Buffer buff : dirty)
+         if (buff.flush())
+            written++;
+      if (written > 0)
+         shard.recordWriterWrites(written);
+   }
+}
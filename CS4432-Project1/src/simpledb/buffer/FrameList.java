@@ -0,0 +1,90 @@
+package simpledb.buffer;
+
+import java.util.Arrays;
+
+/**
+ * A doubly linked list of buffer positions,
+ * used by the replacement policies to order the buffers of a pool.
+ * The links are kept in arrays indexed by position,
+ * so that insertion, removal, and membership tests are
+ * constant-time and allocate nothing.
+ * A position can be in the list at most once.
+ */
+class FrameList {
+   private int[] prev, next;
+   private boolean[] member;
+   private int head = -1, tail = -1, size = 0;
+
+   /**
+    * Creates an empty list for a pool having the specified number of buffers.
+    * @param numbuffs the number of buffers in the pool
+    */
+   FrameList(int numbuffs) {
+      prev = new int[numbuffs];
+      next = new int[numbuffs];
+      member = new boolean[numbuffs];
+      Arrays.fill(prev, -1);
+      Arrays.fill(next, -1);
+   }
+
+   /**
+    * Appends the specified position to the end of the list.
+    * @param pos a position that is not in the list
+    */
+   void addLast(int pos) {
+      prev[pos] = tail;
+      next[pos] = -1;
+      if (tail < 0)
+         head = pos;
+      else
+         next[tail] = pos;
+      tail = pos;
+      member[pos] = true;
+      size++;
+   }
+
+   /**
+    * Removes the specified position from the list, if it is there.
+    * @param pos the position
+    */
+   void remove(int pos) {
+      if (!member[pos])
+         return;
+      if (prev[pos] < 0)
+         head = next[pos];
+      else
+         next[prev[pos]] = next[pos];
+      if (next[pos] < 0)
+         tail = prev[pos];
+      else
+         prev[next[pos]] = prev[pos];
+      prev[pos] = next[pos] = -1;
+      member[pos] = false;
+      size--;
+   }
+
+   boolean contains(int pos) {
+      return member[pos];
+   }
+
+   /**
+    * Returns the first position in the list, or -1 if the list is empty.
+    * @return the first position
+    */
+   int first() {
+      return head;
+   }
+
+   /**
+    * Returns the position following the specified one, or -1 if it is the last.
+    * @param pos a position in the list
+    * @return the next position
+    */
+   int next(int pos) {
+      return next[pos];
+   }
+
+   int size() {
+      return size;
+   }
+}
@@ -0,0 +1,83 @@
+package simpledb.buffer;
+
+/**
+ * A bounded list of the ids of blocks that have been evicted from a pool,
+ * ordered by the time they were added,
+ * together with a value that a replacement policy associates with each block.
+ * When the list is full, adding a block drops the oldest one.
+ * The entries are kept in arrays, linked in order
+ * and indexed by a {@link PageTable}, so no operation allocates.
+ */
+class GhostList {
+   private PageTable index;
+   private long[] ids, values;
+   private FrameList order;
+   private int[] free;
+   private int numfree;
+
+   /**
+    * Creates an empty list that can hold the specified number of blocks.
+    * @param capacity the maximum number of blocks
+    */
+   GhostList(int capacity) {
+      capacity = Math.max(1, capacity);
+      index = new PageTable(capacity);
+      ids = new long[capacity];
+      values = new long[capacity];
+      order = new FrameList(capacity);
+      free = new int[capacity];
+      for (int i=0; i<capacity; i++)
+         free[i] = capacity - 1 - i;
+      numfree = capacity;
+   }
+
+   boolean contains(long id) {
+      return index.get(id) >= 0;
+   }
+
+   /**
+    * Adds the specified block as the newest entry of the list,
+    * dropping the oldest entry if the list is full.
+    * @param id the block's id
+    * @param value the value associated with the block
+    */
+   void add(long id, long value) {
+      remove(id);
+      if (numfree == 0)
+         removeOldest();
+      int slot = free[--numfree];
+      ids[slot] = id;
+      values[slot] = value;
+      order.addLast(slot);
+      index.put(id, slot);
+   }
+
+   /**
+    * Removes the specified block from the list,
+    * and returns the value associated with it.
+    * @param id the block's id
+    * @return the block's value, or -1 if the block is not in the list
+    */
+   long remove(long id) {
+      int slot = index.get(id);
+      if (slot < 0)
+         return -1;
+      index.remove(id);
+      order.remove(slot);
+      free[numfree++] = slot;
+      return values[slot];
+   }
+
+   /**
+    * Removes the oldest entry of the list, if there is one.
+    */
+   void removeOldest() {
+      int slot = order.first();
+      if (slot >= 0)
+         remove(ids[slot]);
+   }
+
+   int size() {
+      return order.size();
+   }
+}
@@ -0,0 +1,165 @@
+package simpledb.buffer;
+
+import java.util.Arrays;
+
+/**
+ * The LRU-K replacement policy (O'Neil, O'Neil, and Weikum), with K=2.
+ * The victim is the unpinned buffer whose second most recent reference
+ * is the oldest; buffers whose block has been referenced only once
+ * are evicted first, least recently unpinned first.
+ * A block that is scanned once therefore never displaces a block
+ * that is referenced repeatedly.
+ * <p>
+ * Time is measured by counting references (pins).
+ * A reference that follows the previous reference to the same block
+ * within the correlated reference period (a quarter of the pool's size)
+ * only updates the time of the last reference,
+ * so that the several pins of one operation, such as a read-ahead
+ * followed by a read, count as a single reference.
+ * The time of the last reference of an evicted block is remembered,
+ * for as many blocks as the pool has buffers,
+ * so that a block that returns to the pool keeps its history.
+ * <p>
+ * Only unpinned buffers are candidates:
+ * those referenced once are kept in a list,
+ * and the others in a heap ordered by their second most recent reference,
+ * so a victim is found in logarithmic time.
+ */
+class LRU2Policy implements ReplacementPolicy {
+   private Buffer[] pool;
+   private long clock = 0;
+   private int crp;
+   private long[] last, penult;
+   private FrameList once;
+   private int[] heap, heapPos;
+   private int heapSize = 0;
+   private GhostList history;
+
+   /**
+    * Creates the policy for the specified pool.
+    * @param pool the buffers of the pool
+    */
+   LRU2Policy(Buffer[] pool) {
+      this.pool = pool;
+      int n = pool.length;
+      crp = Math.max(1, n / 4);
+      last = new long[n];
+      penult = new long[n];
+      Arrays.fill(last, -1);
+      Arrays.fill(penult, -1);
+      once = new FrameList(n);
+      heap = new int[n];
+      heapPos = new int[n];
+      Arrays.fill(heapPos, -1);
+      history = new GhostList(n);
+   }
+
+   public void pin(Buffer buff, boolean hit) {
+      int pos = buff.getPosition();
+      clock++;
+      if (!hit) {
+         last[pos] = clock;
+         penult[pos] = -1;
+         return;
+      }
+      if (!buff.isPinned())
+         removeCandidate(pos);
+      if (clock - last[pos] > crp)
+         penult[pos] = last[pos];
+      last[pos] = clock;
+   }
+
+   public void admit(Buffer buff) {
+      int pos = buff.getPosition();
+      long prevref = history.remove(buff.block().id());
+      if (prevref >= 0 && last[pos] - prevref > crp)
+         penult[pos] = prevref;
+   }
+
+   public void unpin(Buffer buff) {
+      int pos = buff.getPosition();
+      if (penult[pos] < 0)
+         once.addLast(pos);
+      else
+         heapInsert(pos);
+   }
+
+   public Buffer victim() {
+      int pos = once.first();
+      if (pos >= 0)
+         once.remove(pos);
+      else if (heapSize > 0)
+         pos = heapRemove(0);
+      else
+         return null;
+      history.add(pool[pos].block().id(), last[pos]);
+      return pool[pos];
+   }
+
+   public void discard(Buffer buff) {
+      removeCandidate(buff.getPosition());
+   }
+
+   private void removeCandidate(int pos) {
+      once.remove(pos);
+      if (heapPos[pos] >= 0)
+         heapRemove(heapPos[pos]);
+   }
+
+   private void heapInsert(int pos) {
+      heap[heapSize] = pos;
+      heapPos[pos] = heapSize;
+      heapSize++;
+      siftUp(heapSize - 1);
+   }
+
+   /**
+    * Removes the entry at the specified index of the heap.
+    * @param i an index of the heap
+    * @return the position that was stored at that index
+    */
+   private int heapRemove(int i) {
+      int pos = heap[i];
+      heapPos[pos] = -1;
+      heapSize--;
+      if (i < heapSize) {
+         heap[i] = heap[heapSize];
+         heapPos[heap[i]] = i;
+         siftDown(i);
+         siftUp(i);
+      }
+      return pos;
+   }
+
+   private void siftUp(int i) {
+      while (i > 0) {
+         int parent = (i - 1) / 2;
+         if (penult[heap[parent]] <= penult[heap[i]])
+            return;
+         swap(i, parent);
+         i = parent;
+      }
+   }
+
+   private void siftDown(int i) {
+      while (true) {
+         int child = 2 * i + 1;
+         if (child >= heapSize)
+            return;
+         if (child + 1 < heapSize && penult[heap[child+1]] < penult[heap[child]])
+            child++;
+         if (penult[heap[i]] <= penult[heap[child]])
+            return;
+         swap(i, child);
+         i = child;
+      }
+   }
+
+   private void swap(int i, int j) {
+      int tmp = heap[i];
+      heap[i] = heap[j];
+      heap[j] = tmp;
+      heapPos[heap[i]] = i;
+      heapPos[heap[j]] = j;
+   }
+}
@@ -0,0 +1,102 @@
+package simpledb.buffer;
+
+/**
+ * A histogram of latencies with logarithmic buckets.
+ * Bucket 0 counts latencies under 2 microseconds, and
+ * bucket i (for i &gt; 0) counts latencies of at least
+ * 2<sup>i</sup> and under 2<sup>i+1</sup> microseconds;
+ * the last bucket also counts all longer latencies.
+ * <p>
+ * Recording a latency is just an increment, so a histogram
+ * is cheap enough to be kept on every pin.
+ * An object of this class is not thread-safe;
+ * each shard of the buffer pool updates its histograms while holding its lock.
+ */
+public class LatencyHistogram {
+   /**
+    * The number of buckets, enough for latencies of about 30 seconds.
+    */
+   public static final int BUCKETS = 25;
+
+   private long[] counts = new long[BUCKETS];
+   private long total = 0;
+   private long max = 0;
+
+   /**
+    * Records a latency.
+    * @param nanos the latency in nanoseconds
+    */
+   void record(long nanos) {
+      long micros = Math.max(0, nanos / 1000);
+      int i = 63 - Long.numberOfLeadingZeros(micros | 1);
+      counts[Math.min(i, BUCKETS - 1)]++;
+      total += nanos;
+      max = Math.max(max, nanos);
+   }
+
+   /**
+    * Adds the counts of another histogram to this one.
+    * @param h the other histogram
+    */
+   void add(LatencyHistogram h) {
+      for (int i=0; i<BUCKETS; i++)
+         counts[i] += h.counts[i];
+      total += h.total;
+      max = Math.max(max, h.max);
+   }
+
+   /**
+    * Returns the number of recorded latencies.
+    * @return the number of latencies
+    */
+   public long count() {
+      long n = 0;
+      for (long c : counts)
+         n += c;
+      return n;
+   }
+
+   /**
+    * Returns the counts of the buckets.
+    * @return a copy of the bucket counts
+    */
+   public long[] counts() {
+      return counts.clone();
+   }
+
+   /**
+    * Returns the sum of the recorded latencies.
+    * @return the total latency in nanoseconds
+    */
+   public long totalNanos() {
+      return total;
+   }
+
+   /**
+    * Returns the largest recorded latency.
+    * @return the maximum latency in nanoseconds
+    */
+   public long maxNanos() {
+      return max;
+   }
+
+   /**
+    * Returns an upper bound of the specified percentile of the
+    * recorded latencies, namely the upper limit of the bucket containing it.
+    * @param p the percentile, between 0 and 100
+    * @return the bound in microseconds, or 0 if nothing was recorded
+    */
+   public long percentileMicros(double p) {
+      long n = count();
+      if (n == 0)
+         return 0;
+      long rank = (long) Math.ceil(n * p / 100.0);
+      long seen = 0;
+      for (int i=0; i<BUCKETS; i++) {
+         seen += counts[i];
+         if (seen >= rank && counts[i] > 0)
+            return 1L << (i + 1);
+      }
+      return 1L << BUCKETS;
+   }
+}
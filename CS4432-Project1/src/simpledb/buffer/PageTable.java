@@ -0,0 +1,95 @@
+package simpledb.buffer;
+
+import java.util.Arrays;
+
+/**
+ * The page table of a buffer pool,
+ * which maps the id of each block in the pool
+ * (see {@link simpledb.file.Block#id()}) to the position of its buffer.
+ * The table uses open addressing with linear probing over
+ * primitive arrays, so that lookups neither allocate nor box,
+ * and entries are removed by shifting the following entries back,
+ * so that no tombstones accumulate.
+ * The table never holds more entries than the pool has buffers,
+ * and its capacity is fixed at twice that number (rounded up to a power of two).
+ * The class is not thread-safe; it is accessed by its
+ * buffer manager while holding the manager's lock.
+ */
+class PageTable {
+   private static final long EMPTY = -1;
+   private long[] keys;
+   private int[] positions;
+   private int mask;
+
+   /**
+    * Creates an empty page table for a pool
+    * having the specified number of buffers.
+    * @param numbuffs the number of buffers in the pool
+    */
+   PageTable(int numbuffs) {
+      int capacity = Integer.highestOneBit(Math.max(2, numbuffs) * 2 - 1) * 2;
+      keys = new long[capacity];
+      positions = new int[capacity];
+      mask = capacity - 1;
+      Arrays.fill(keys, EMPTY);
+   }
+
+   /**
+    * Returns the position of the buffer holding the specified block,
+    * or -1 if the block is not in the pool.
+    * @param key the block's id
+    * @return the buffer's position, or -1
+    */
+   int get(long key) {
+      for (int i = slot(key); keys[i] != EMPTY; i = (i + 1) & mask)
+         if (keys[i] == key)
+            return positions[i];
+      return -1;
+   }
+
+   /**
+    * Records that the specified block is held by the
+    * buffer at the specified position.
+    * @param key the block's id
+    * @param position the buffer's position
+    */
+   void put(long key, int position) {
+      int i = slot(key);
+      while (keys[i] != EMPTY && keys[i] != key)
+         i = (i + 1) & mask;
+      keys[i] = key;
+      positions[i] = position;
+   }
+
+   /**
+    * Removes the specified block from the table, if it is there.
+    * @param key the block's id
+    */
+   void remove(long key) {
+      int i = slot(key);
+      while (keys[i] != key) {
+         if (keys[i] == EMPTY)
+            return;
+         i = (i + 1) & mask;
+      }
+      // shift back the entries that probed past the removed one
+      int j = i;
+      while (true) {
+         j = (j + 1) & mask;
+         if (keys[j] == EMPTY)
+            break;
+         int home = slot(keys[j]);
+         if (((j - home) & mask) >= ((j - i) & mask)) {
+            keys[i] = keys[j];
+            positions[i] = positions[j];
+            i = j;
+         }
+      }
+      keys[i] = EMPTY;
+   }
+
+   private int slot(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32)) & mask;
+   }
+}
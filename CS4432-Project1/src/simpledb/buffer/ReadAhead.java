@@ -0,0 +1,232 @@
+package simpledb.buffer;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.Block;
+
+/**
+ * The asynchronous read-ahead of a buffer pool.
+ * The buffer manager tells the read-ahead about every block that
+ * a thread pins. When a thread pins {@link #TRIGGER} or more consecutive
+ * blocks of a file in ascending order, the read-ahead asks a small pool of
+ * I/O threads to read the following blocks into the buffer pool,
+ * using {@link BufferMgr#prefetch(String, int, int, BufferRing)},
+ * so that the blocks are usually in the pool by the time the thread needs them.
+ * The read-ahead keeps up to a window of blocks requested ahead of the
+ * thread, and requests more when half of the window has been used.
+ * <p>
+ * Sequential access is detected separately for each thread, and
+ * for the few files that the thread has used most recently,
+ * so that concurrent scans, and the several runs that a merge
+ * reads in turn, do not disturb each other.
+ * The blocks are read on behalf of the scan's ring, if it has one.
+ * Since prefetching never waits for buffers, the read-ahead
+ * simply reads less when the pool is busy; and since a request
+ * skips the blocks that the scan has already reached, the read-ahead
+ * also reads less when the I/O threads fall behind.
+ * <p>
+ * When the buffers of a file are discarded because the file is being deleted,
+ * the requests for the file are cancelled, and the buffer manager waits
+ * for any that are being carried out, so that the I/O threads never
+ * read from a deleted file (which would create it again).
+ */
+class ReadAhead {
+   /**
+    * The number of consecutive blocks that a thread must pin
+    * before its access to the file is considered sequential.
+    */
+   static final int TRIGGER = 2;
+
+   private static final int IO_THREADS = 2;
+   private static final int MAX_FILES = 8; // files tracked per thread
+   private static final int MAX_REQUESTS = 64; // requests queued for the I/O threads
+
+   private BufferMgr bufferMgr;
+   private volatile int window;
+   private ThreadPoolExecutor io;
+   private Set<Request> pending = new HashSet<Request>(); // requested and not yet finished; guarded by this
+   private ThreadLocal<Map<String,Stream>> streams = new ThreadLocal<Map<String,Stream>>() {
+      protected Map<String,Stream> initialValue() {
+         return new LinkedHashMap<String,Stream>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String,Stream> eldest) {
+               return size() > MAX_FILES;
+            }
+         };
+      }
+   };
+
+   /**
+    * The state of a thread's access to a file.
+    */
+   private static class Stream {
+      volatile int last; // the block pinned last, also read by the I/O threads
+      int run;       // the number of consecutive blocks pinned before it
+      int ahead;     // the blocks before this one have been requested
+   }
+
+   /**
+    * A request to read blocks of a file ahead of a scan.
+    */
+   private class Request implements Runnable {
+      String filename;
+      int start, end;
+      Stream stream;
+      BufferRing ring;
+      boolean cancelled, running; // guarded by the read-ahead
+
+      Request(String filename, int start, int end, Stream stream, BufferRing ring) {
+         this.filename = filename;
+         this.start = start;
+         this.end = end;
+         this.stream = stream;
+         this.ring = ring;
+      }
+
+      public void run() {
+         synchronized (ReadAhead.this) {
+            if (cancelled) {
+               pending.remove(this);
+               return;
+            }
+            running = true;
+         }
+         try {
+            int from = Math.max(start, stream.last + 1);
+            if (from < end) // otherwise it is too late
+               bufferMgr.prefetch(filename, from, end - from, ring);
+         }
+         catch (RuntimeException e) {
+            // the scan will read the blocks itself,
+            // and an I/O error will then be reported to its transaction
+         }
+         finally {
+            finished(this);
+         }
+      }
+   }
+
+   /**
+    * Creates the read-ahead of the specified buffer manager,
+    * and starts its I/O threads.
+    * @param bufferMgr the buffer manager
+    * @param window the number of blocks to keep requested ahead of a scan
+    */
+   ReadAhead(BufferMgr bufferMgr, int window) {
+      this.bufferMgr = bufferMgr;
+      this.window = window;
+      ThreadFactory daemons = new ThreadFactory() {
+         public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "simpledb read-ahead");
+            t.setDaemon(true);
+            return t;
+         }
+      };
+      // when the queue is full, the pool is evidently busy enough
+      // that further requests can be dropped
+      io = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_REQUESTS), daemons,
+            (r, executor) -> finished((Request) r));
+   }
+
+   /**
+    * Changes the number of blocks kept requested ahead of a scan.
+    * @param window the new number of blocks, or 0 to stop reading ahead
+    */
+   void setWindow(int window) {
+      this.window = window;
+   }
+
+   /**
+    * Returns the number of blocks kept requested ahead of a scan.
+    * @return the number of blocks, or 0 if the read-ahead is stopped
+    */
+   int window() {
+      return window;
+   }
+
+   /**
+    * Notes that the calling thread has pinned the specified block,
+    * and requests the blocks that follow it if the
+    * thread is reading the block's file sequentially.
+    * @param blk the pinned block
+    * @param ring the ring of the calling scan, or null
+    */
+   void pinned(Block blk, BufferRing ring) {
+      int w = window;
+      if (w <= 0)
+         return;
+      String filename = blk.fileName();
+      int b = blk.number();
+      Map<String,Stream> mystreams = streams.get();
+      Stream s = mystreams.get(filename);
+      if (s == null) {
+         s = new Stream();
+         s.last = b;
+         mystreams.put(filename, s);
+         return;
+      }
+      if (b == s.last)
+         return;
+      if (b == s.last + 1)
+         s.run++;
+      else {
+         s.run = 0;
+         s.ahead = 0;
+      }
+      s.last = b;
+      if (s.run < TRIGGER - 1 || b + w / 2 < s.ahead)
+         return;
+      int start = Math.max(b + 1, s.ahead);
+      int end = Math.min(b + 1 + w, SimpleDB.fileMgr().size(filename));
+      if (start >= end)
+         return;
+      s.ahead = end;
+      Request r = new Request(filename, start, end, s, ring);
+      synchronized (this) {
+         pending.add(r);
+      }
+      io.execute(r);
+   }
+
+   /**
+    * Cancels the requests for the specified file, which is about
+    * to be deleted, and waits for those being carried out to finish.
+    * @param filename the name of the file
+    */
+   synchronized void discard(String filename) {
+      boolean busy = false;
+      for (Request r : pending)
+         if (r.filename.equals(filename)) {
+            r.cancelled = true;
+            busy |= r.running;
+         }
+      while (busy) {
+         try {
+            wait();
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+         }
+         busy = false;
+         for (Request r : pending)
+            busy |= r.running && r.filename.equals(filename);
+      }
+   }
+
+   /**
+    * Forgets a request that has been carried out, cancelled, or dropped.
+    */
+   private synchronized void finished(Request r) {
+      pending.remove(r);
+      notifyAll();
+   }
+}
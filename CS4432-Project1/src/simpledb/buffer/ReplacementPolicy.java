@@ -0,0 +1,52 @@
+package simpledb.buffer;
+
+/**
+ * A buffer replacement policy that keeps its own bookkeeping,
+ * for the policies that need more than the recency information
+ * stored in each buffer.
+ * A basic buffer manager notifies its policy of every
+ * change to its buffers, while holding the manager's lock,
+ * and asks the policy to choose a victim when it has no empty frame.
+ * Buffers are identified by their position in the pool.
+ */
+interface ReplacementPolicy {
+   /**
+    * Called each time the specified buffer is pinned,
+    * before its pin count is incremented.
+    * A pin is a hit if the buffer already held the requested block;
+    * otherwise the buffer has just been chosen for a new block,
+    * and {@link #admit(Buffer)} is called once the block is assigned.
+    * @param buff the buffer
+    * @param hit true if the block was already in the buffer
+    */
+   void pin(Buffer buff, boolean hit);
+
+   /**
+    * Called when the specified buffer has been pinned and
+    * assigned to a block that was not in the pool.
+    * @param buff the buffer
+    */
+   void admit(Buffer buff);
+
+   /**
+    * Called when the pin count of the specified buffer becomes zero.
+    * @param buff the buffer
+    */
+   void unpin(Buffer buff);
+
+   /**
+    * Chooses an unpinned buffer to be replaced, and forgets it,
+    * possibly remembering its block in the policy's history.
+    * Returns null if every buffer is pinned.
+    * @return the victim buffer, or null
+    */
+   Buffer victim();
+
+   /**
+    * Called when the specified unpinned buffer is emptied
+    * because its block's file has been deleted.
+    * The block is forgotten without being remembered in the history.
+    * @param buff the buffer
+    */
+   void discard(Buffer buff);
+}
@@ -0,0 +1,215 @@
+package simpledb.buffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import simpledb.file.Block;
+
+/**
+ * Replays a {@link BufferTrace} against every replacement policy
+ * and a range of pool sizes, and reports the hit ratio of each,
+ * so that the policy and size of the buffer pool can be chosen
+ * from a recording of the real workload.
+ * <p>
+ * Each combination is simulated by a {@link BasicBufferMgr} whose
+ * buffers have no pages, so the policies are exactly those of
+ * the running system, but nothing is read or written and the
+ * trace can be replayed without a database.
+ * The simulated pool is a single shard. Pins that were made through a
+ * {@link BufferRing} are replayed through a ring of the simulation's own,
+ * so that scans recycle their buffers as they do in the running system.
+ * Blocks read by the read-ahead are not in the trace, so their
+ * first pins count as misses.
+ * Pins of new blocks allocate buffers like any other pin,
+ * but are not counted as hits or misses.
+ * A pin that finds every simulated buffer pinned is counted as a miss
+ * and as a stall; its block is not brought into the pool.
+ * <p>
+ * Usage: <code>java simpledb.buffer.TraceSimulator tracefile [size ...]</code>.
+ * If no sizes are given, powers of two are used, from the most buffers that
+ * the trace ever has pinned at once up to the number of distinct blocks.
+ */
+public class TraceSimulator {
+   private static final int MAX_RINGS = 1024; // rings kept for scans that may still be running
+
+   private BasicBufferMgr pool;
+   private Map<Integer,BufferRing> rings = new LinkedHashMap<Integer,BufferRing>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<Integer,BufferRing> eldest) {
+         return size() > MAX_RINGS;
+      }
+   };
+   private Map<Block,Buffer> pinned = new HashMap<Block,Buffer>();
+   private Map<Block,Integer> stalled = new HashMap<Block,Integer>();
+   private long hits, misses, stalls;
+
+   /**
+    * Creates a simulated pool.
+    * @param size the number of buffers
+    * @param rpolicy the replacement policy, as for {@link BufferMgr}
+    */
+   TraceSimulator(int size, int rpolicy) {
+      pool = new BasicBufferMgr(size, rpolicy, 0, true);
+   }
+
+   /**
+    * Applies an event of the trace to the simulated pool.
+    * An unpin of a block that the pool does not have pinned
+    * (because the trace started while it was pinned,
+    * or because its pin stalled) is ignored.
+    * @param op the kind of event
+    * @param blk the event's block, or null for a discard
+    * @param filename the name of the event's file
+    * @param ringId the number of the ring of a pin, or -1
+    */
+   void replay(int op, Block blk, String filename, int ringId) {
+      if (op == BufferTrace.PIN || op == BufferTrace.NEW) {
+         if (op == BufferTrace.PIN) {
+            if (pool.contains(blk))
+               hits++;
+            else
+               misses++;
+         }
+         BufferRing ring = (ringId < 0) ? null : rings.computeIfAbsent(ringId, r -> new BufferRing());
+         Buffer buff = pool.pin(blk, ring);
+         if (buff != null)
+            pinned.put(blk, buff);
+         else {
+            stalls++;
+            stalled.merge(blk, 1, Integer::sum);
+         }
+      }
+      else if (op == BufferTrace.UNPIN) {
+         Integer n = stalled.get(blk);
+         if (n != null) {
+            if (n == 1)
+               stalled.remove(blk);
+            else
+               stalled.put(blk, n-1);
+            return;
+         }
+         Buffer buff = pinned.get(blk);
+         if (buff == null)
+            return;
+         pool.unpin(buff);
+         if (!buff.isPinned())
+            pinned.remove(blk);
+      }
+      else if (op == BufferTrace.DISCARD)
+         pool.discard(filename);
+   }
+
+   /**
+    * Returns the fraction of the pins of existing blocks that were hits.
+    * @return the hit ratio
+    */
+   double hitRatio() {
+      long pins = hits + misses;
+      return (pins == 0) ? 0 : (double) hits / pins;
+   }
+
+   /**
+    * Returns the number of pins that found every buffer pinned.
+    * @return the number of stalls
+    */
+   long stalls() {
+      return stalls;
+   }
+
+   /**
+    * Replays the specified trace and prints a table of the hit
+    * ratio of each policy for each pool size.
+    * @param args the trace file, followed by the pool sizes
+    * @throws IOException if the trace cannot be read
+    */
+   public static void main(String[] args) throws IOException {
+      if (args.length == 0) {
+         System.err.println("usage: java simpledb.buffer.TraceSimulator tracefile [size ...]");
+         System.exit(1);
+      }
+      File file = new File(args[0]);
+
+      // the first pass summarizes the trace
+      long pins = 0, news = 0;
+      int mostPinned = 0;
+      Set<Block> blocks = new HashSet<Block>();
+      Map<Block,Integer> pinCounts = new HashMap<Block,Integer>();
+      BufferTrace.Reader reader = new BufferTrace.Reader(file);
+      for (int op = reader.next(); op >= 0; op = reader.next()) {
+         Block blk = reader.block();
+         if (op == BufferTrace.PIN || op == BufferTrace.NEW) {
+            if (op == BufferTrace.PIN)
+               pins++;
+            else
+               news++;
+            blocks.add(blk);
+            pinCounts.merge(blk, 1, Integer::sum);
+            mostPinned = Math.max(mostPinned, pinCounts.size());
+         }
+         else if (op == BufferTrace.UNPIN)
+            pinCounts.computeIfPresent(blk, (b, n) -> (n == 1) ? null : n-1);
+      }
+      reader.close();
+
+      List<Integer> sizes = new ArrayList<Integer>();
+      for (int i=1; i<args.length; i++)
+         sizes.add(Integer.parseInt(args[i]));
+      if (sizes.isEmpty()) {
+         int size = Integer.highestOneBit(Math.max(mostPinned, 1));
+         if (size < mostPinned)
+            size *= 2;
+         for (; size < blocks.size(); size *= 2)
+            sizes.add(size);
+         sizes.add(size);
+      }
+
+      // the second pass replays it against every combination
+      int policies = BufferPoolMonitor.POLICIES.length;
+      TraceSimulator[][] sims = new TraceSimulator[policies][sizes.size()];
+      for (int p=0; p<policies; p++)
+         for (int s=0; s<sizes.size(); s++)
+            sims[p][s] = new TraceSimulator(sizes.get(s), p+1);
+      reader = new BufferTrace.Reader(file);
+      for (int op = reader.next(); op >= 0; op = reader.next())
+         for (TraceSimulator[] row : sims)
+            for (TraceSimulator sim : row)
+               sim.replay(op, reader.block(), reader.fileName(), reader.ring());
+      reader.close();
+
+      System.out.println(file + ": " + pins + " pins, " + news + " new blocks, "
+            + blocks.size() + " distinct blocks, at most " + mostPinned + " pinned at once");
+      StringBuilder line = new StringBuilder(String.format("%-8s", "buffers"));
+      for (int size : sizes)
+         line.append(String.format("%9d", size));
+      System.out.println(line);
+      boolean anyStalls = false;
+      for (int p=0; p<policies; p++) {
+         line = new StringBuilder(String.format("%-8s", BufferPoolMonitor.POLICIES[p]));
+         for (TraceSimulator sim : sims[p]) {
+            line.append(String.format("%8.1f%%", 100 * sim.hitRatio()));
+            if (sim.stalls() > 0) {
+               line.setCharAt(line.length()-1, '*');
+               anyStalls = true;
+            }
+         }
+         System.out.println(line);
+      }
+      line = new StringBuilder(String.format("%-8s", "best"));
+      for (int s=0; s<sizes.size(); s++) {
+         int best = 0;
+         for (int p=1; p<policies; p++)
+            if (sims[p][s].hitRatio() > sims[best][s].hitRatio())
+               best = p;
+         line.append(String.format("%9s", BufferPoolMonitor.POLICIES[best]));
+      }
+      System.out.println(line);
+      if (anyStalls)
+         System.out.println("* some pins found every buffer pinned; the pool is too small for the workload");
+   }
+}
@@ -0,0 +1,102 @@
+package simpledb.buffer;
+
+/**
+ * The 2Q replacement policy (Johnson and Shasha).
+ * A block that enters the pool goes into the queue A1in,
+ * which is managed FIFO and holds about a quarter of the buffers;
+ * re-references to a block in A1in are ignored, so a scan
+ * passes through A1in without disturbing the rest of the pool.
+ * The ids of blocks evicted from A1in are remembered in the ghost queue A1out;
+ * a block that is requested again while in A1out has proved that
+ * it is reused, and goes into the LRU queue Am.
+ * <p>
+ * This is the "full" 2Q of the paper, with its recommended sizes
+ * (Kin is a quarter of the pool, and A1out remembers half as many
+ * blocks as the pool holds), adapted to a pool whose buffers can be pinned:
+ * <ul>
+ * <li>The victim is the oldest <i>unpinned</i> buffer of the queue that the
+ * paper would evict from. If every buffer of that queue is pinned,
+ * the victim comes from the other queue instead, so that A1in
+ * grows beyond Kin while its blocks are pinned, and shrinks below it
+ * while those of Am are.
+ * <li>A block of A1in that is evicted early in this way is still
+ * remembered in A1out, as the paper does for A1in's normal evictions.
+ * <li>A re-reference is a pin that finds the block in the pool, so an
+ * operation that pins the same block several times moves it to the
+ * end of Am each time; the paper has no notion of correlated references.
+ * <li>Buffers whose file is discarded leave the queues without being
+ * remembered in A1out.
+ * </ul>
+ * Each shard and sub-pool of the buffer manager has its own queues.
+ */
+class TwoQPolicy implements ReplacementPolicy {
+   private Buffer[] pool;
+   private FrameList a1in, am;
+   private GhostList a1out;
+   private int kin;
+
+   /**
+    * Creates the policy for the specified pool.
+    * @param pool the buffers of the pool
+    */
+   TwoQPolicy(Buffer[] pool) {
+      this.pool = pool;
+      a1in = new FrameList(pool.length);
+      am = new FrameList(pool.length);
+      kin = Math.max(1, pool.length / 4);
+      a1out = new GhostList(pool.length / 2);
+   }
+
+   public void pin(Buffer buff, boolean hit) {
+      int pos = buff.getPosition();
+      if (hit && am.contains(pos)) {
+         am.remove(pos);
+         am.addLast(pos);
+      }
+   }
+
+   public void admit(Buffer buff) {
+      int pos = buff.getPosition();
+      long id = buff.block().id();
+      if (a1out.contains(id)) {
+         a1out.remove(id);
+         am.addLast(pos);
+      }
+      else
+         a1in.addLast(pos);
+   }
+
+   public void unpin(Buffer buff) {
+   }
+
+   public Buffer victim() {
+      int pos = -1;
+      if (a1in.size() > kin)
+         pos = firstUnpinned(a1in);
+      if (pos < 0) {
+         pos = firstUnpinned(am);
+         if (pos >= 0) {
+            am.remove(pos);
+            return pool[pos];
+         }
+         pos = firstUnpinned(a1in);
+         if (pos < 0)
+            return null;
+      }
+      a1in.remove(pos);
+      a1out.add(pool[pos].block().id(), 0);
+      return pool[pos];
+   }
+
+   public void discard(Buffer buff) {
+      a1in.remove(buff.getPosition());
+      am.remove(buff.getPosition());
+   }
+
+   private int firstUnpinned(FrameList list) {
+      int pos = list.first();
+      while (pos >= 0 && pool[pos].isPinned())
+         pos = list.next(pos);
+      return pos;
+   }
+}
@@ -1,15 +1,30 @@
 package simpledb.file;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * A reference to a disk block.
  * A Block object consists of a filename and a block number.
  * It does not hold the contents of the block;
  * instead, that is the job of a {@link Page} object.
+ * <p>
+ * Each filename is assigned a distinct integer id the first time
+ * the {@link #id()} of one of its blocks is requested,
+ * so that a block can be identified by a single long value.
+ * The id is forgotten when the file is deleted, and a new file with
+ * the same name gets a new id, so blocks of the deleted file
+ * are never mistaken for blocks of the new one.
  * @author Edward Sciore
  */
 public class Block {
+   private static Map<String,Integer> fileIds = new ConcurrentHashMap<String,Integer>();
+   private static AtomicInteger nextFileId = new AtomicInteger();
+   
    private String filename;
    private int blknum;
+   private long id = -1;
    
    /**
     * Constructs a block reference 
@@ -38,6 +53,33 @@ public class Block {
       return blknum;
    }
    
+   /**
+    * Returns a long value that identifies the block:
+    * the id of its file in the high 32 bits,
+    * and its block number in the low 32 bits.
+    * Two blocks have the same id if and only if they are equal.
+    * The value is never negative.
+    * @return the block's id
+    */
+   public long id() {
+      if (id < 0) {
+         Integer fileid = fileIds.get(filename);
+         if (fileid == null)
+            fileid = fileIds.computeIfAbsent(filename, f -> nextFileId.getAndIncrement());
+         id = ((long) fileid << 32) | (blknum & 0xffffffffL);
+      }
+      return id;
+   }
+   
+   /**
+    * Forgets the id of the specified file,
+    * which is being deleted.
+    * @param filename the name of the file
+    */
+   static void forgetFile(String filename) {
+      fileIds.remove(filename);
+   }
+   
    public boolean equals(Object obj) {
       Block blk = (Block) obj;
       return filename.equals(blk.filename) && blknum == blk.blknum;
@@ -0,0 +1,237 @@
+package simpledb.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.*;
+
+/**
+ * The storage layout of a compressed database file.
+ * A compressed file is a sequence of block images, each preceded by
+ * a header holding the block number, the length of the image,
+ * and a checksum of the image.
+ * An image is normally the block's contents compressed with
+ * {@link Deflater}; a block that does not compress is stored as is,
+ * which is indicated by a negative length.
+ * <p>
+ * Writing a block appends a new image to the end of the file,
+ * and a map from block numbers to image positions is kept in memory.
+ * The map is rebuilt by scanning the file when it is opened;
+ * an incomplete or corrupt image at the end of the file
+ * (the result of a crash during a write) is discarded.
+ * The space of superseded images is reclaimed by {@link #copyTo(FileChannel, FileChannel)},
+ * which the file manager calls when a file is opened
+ * and more than half of it is garbage.
+ * <p>
+ * An object of this class is not thread-safe;
+ * the file manager accesses it while holding the file's monitor.
+ */
+class CompressedBlocks {
+   /**
+    * The number of bytes in the header of a block image.
+    */
+   static final int HEADER_SIZE = 12;
+
+   private int blocksize;
+   private long[] offsets = new long[16];
+   private int[] lengths = new int[16];
+   private int size = 0;
+   private long end = 0;
+   private long live = 0;
+   private ByteBuffer image;
+   private Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+   private Inflater inflater = new Inflater();
+   private CRC32 crc = new CRC32();
+
+   /**
+    * Reads the block map of a compressed file from its channel.
+    * The file is truncated after its last complete image.
+    * @param fc the file's channel
+    * @param blocksize the block size of the database
+    * @throws IOException
+    */
+   CompressedBlocks(FileChannel fc, int blocksize) throws IOException {
+      this.blocksize = blocksize;
+      image = ByteBuffer.allocate(HEADER_SIZE + blocksize);
+      Arrays.fill(offsets, -1);
+      long filesize = fc.size();
+      while (end + HEADER_SIZE <= filesize) {
+         image.clear();
+         image.limit(HEADER_SIZE);
+         fc.read(image, end);
+         int blknum = image.getInt(0);
+         int len = image.getInt(4);
+         int stored = Math.abs(len);
+         if (blknum < 0 || stored > blocksize || end + HEADER_SIZE + stored > filesize)
+            break;
+         image.limit(HEADER_SIZE + stored);
+         while (image.hasRemaining())
+            if (fc.read(image, end + image.position()) < 0)
+               break;
+         if (image.hasRemaining() || checksum(stored) != image.getInt(8))
+            break;
+         put(blknum, end, len);
+         end += HEADER_SIZE + stored;
+      }
+      if (end < filesize)
+         fc.truncate(end);
+   }
+
+   /**
+    * Returns the number of blocks in the file.
+    * @return the number of blocks
+    */
+   int size() {
+      return size;
+   }
+
+   /**
+    * Returns true if more than half of the file
+    * is taken up by superseded images.
+    * @return true if the file should be compacted
+    */
+   boolean needsCompaction() {
+      return end - live > live;
+   }
+
+   /**
+    * Reads the specified block into a bytebuffer,
+    * decompressing its image.
+    * A block that has never been written reads as zeros.
+    * @param fc the file's channel
+    * @param blknum the block number
+    * @param bb the bytebuffer
+    * @throws IOException
+    */
+   void read(FileChannel fc, int blknum, ByteBuffer bb) throws IOException {
+      bb.clear();
+      if (blknum >= size || offsets[blknum] < 0) {
+         while (bb.hasRemaining())
+            bb.put((byte) 0);
+         return;
+      }
+      int len = lengths[blknum];
+      int stored = Math.abs(len);
+      image.clear();
+      image.limit(stored);
+      long pos = offsets[blknum] + HEADER_SIZE;
+      while (image.hasRemaining())
+         if (fc.read(image, pos + image.position()) < 0)
+            throw new IOException("truncated image of block " + blknum);
+      image.flip();
+      if (len < 0) {
+         bb.put(image);
+         return;
+      }
+      try {
+         inflater.reset();
+         inflater.setInput(image);
+         while (bb.hasRemaining() && !inflater.finished())
+            if (inflater.inflate(bb) == 0 && inflater.needsInput())
+               break;
+      }
+      catch (DataFormatException e) {
+         throw new IOException("corrupt image of block " + blknum);
+      }
+      while (bb.hasRemaining())
+         bb.put((byte) 0);
+   }
+
+   /**
+    * Writes the contents of a bytebuffer to the specified block,
+    * by appending a new image of the block to the end of the file.
+    * The block number may be any value;
+    * the file grows to include it.
+    * @param fc the file's channel
+    * @param blknum the block number
+    * @param bb the bytebuffer
+    * @throws IOException
+    */
+   void write(FileChannel fc, int blknum, ByteBuffer bb) throws IOException {
+      bb.rewind();
+      deflater.reset();
+      deflater.setInput(bb);
+      deflater.finish();
+      image.clear();
+      image.position(HEADER_SIZE);
+      image.limit(HEADER_SIZE + blocksize - 1);
+      while (!deflater.finished() && image.hasRemaining())
+         deflater.deflate(image);
+      int len;
+      if (deflater.finished())
+         len = image.position() - HEADER_SIZE;
+      else {
+         // the block does not compress, so store it as is
+         bb.rewind();
+         image.limit(HEADER_SIZE + blocksize);
+         image.position(HEADER_SIZE);
+         image.put(bb);
+         len = -blocksize;
+      }
+      int stored = Math.abs(len);
+      image.putInt(0, blknum);
+      image.putInt(4, len);
+      image.putInt(8, checksum(stored));
+      image.position(0);
+      image.limit(HEADER_SIZE + stored);
+      long pos = end;
+      while (image.hasRemaining())
+         fc.write(image, pos + image.position());
+      end += HEADER_SIZE + stored;
+      put(blknum, pos, len);
+   }
+
+   /**
+    * Copies the current image of every block to a new file,
+    * leaving the superseded images behind.
+    * @param fc the file's channel
+    * @param dest the channel of the new file, which must be empty
+    * @return the block map of the new file
+    * @throws IOException
+    */
+   CompressedBlocks copyTo(FileChannel fc, FileChannel dest) throws IOException {
+      ByteBuffer bb = ByteBuffer.allocate(HEADER_SIZE + blocksize);
+      long pos = 0;
+      for (int blknum=0; blknum<size; blknum++) {
+         if (offsets[blknum] < 0)
+            continue;
+         int n = HEADER_SIZE + Math.abs(lengths[blknum]);
+         bb.clear();
+         bb.limit(n);
+         while (bb.hasRemaining())
+            if (fc.read(bb, offsets[blknum] + bb.position()) < 0)
+               throw new IOException("truncated image of block " + blknum);
+         bb.flip();
+         while (bb.hasRemaining())
+            dest.write(bb, pos + bb.position());
+         pos += n;
+      }
+      return new CompressedBlocks(dest, blocksize);
+   }
+
+   private int checksum(int stored) {
+      crc.reset();
+      ByteBuffer data = image.duplicate();
+      data.position(HEADER_SIZE);
+      data.limit(HEADER_SIZE + stored);
+      crc.update(data);
+      return (int) crc.getValue();
+   }
+
+   private void put(int blknum, long offset, int len) {
+      if (blknum >= offsets.length) {
+         int n = Math.max(blknum + 1, offsets.length * 2);
+         int oldlen = offsets.length;
+         offsets = Arrays.copyOf(offsets, n);
+         lengths = Arrays.copyOf(lengths, n);
+         Arrays.fill(offsets, oldlen, n, -1);
+      }
+      if (offsets[blknum] >= 0)
+         live -= HEADER_SIZE + Math.abs(lengths[blknum]);
+      offsets[blknum] = offset;
+      lengths[blknum] = len;
+      live += HEADER_SIZE + Math.abs(len);
+      size = Math.max(size, blknum + 1);
+   }
+}
@@ -1,10 +1,15 @@
 package simpledb.file;
 
-import static simpledb.file.Page.BLOCK_SIZE;
+import static simpledb.file.Page.*;
 import java.io.*;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.*;
+import com.sun.nio.file.ExtendedOpenOption;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * The SimpleDB file manager.
@@ -19,12 +24,89 @@ import java.util.*;
  * Method {@link #isNew() isNew} is called during system initialization by {@link simpledb.server.SimpleDB#init}.
  * Method {@link #size(String) size} is called by the log manager and transaction manager to
  * determine the end of the file.
+ * <p>
+ * The file manager does not serialize disk I/O.
+ * Block reads and writes are positional, and may be issued concurrently
+ * by any number of threads; only appends to the same file
+ * (and the mapping of new chunks of a file) are serialized, per file.
+ * <p>
+ * The block size of a database is chosen when the database is created,
+ * and is saved in the header file {@link #HEADER_FILE} in the database directory.
+ * When an existing database is opened, the block size is read from that file
+ * (a database without a header file uses {@link Page#DEFAULT_BLOCK_SIZE}).
+ * The file manager installs the block size as {@link Page#BLOCK_SIZE}.
+ * <p>
+ * The file manager can optionally serve block reads from memory-mapped
+ * regions of each file instead of issuing a positional read per block.
+ * A file is mapped in fixed-size chunks of {@link #MAP_CHUNK_BLOCKS} blocks;
+ * a chunk is mapped the first time one of its blocks is read and the
+ * file is long enough to contain the whole chunk.
+ * Blocks in the (partial) last chunk of a file are read from the channel as usual.
+ * Writes always go through the file channel, so their durability is unchanged;
+ * the mapped regions see those writes because they share the OS page cache.
+ * <p>
+ * By default every block write is synchronous.
+ * In group-sync mode (see {@link #setGroupSync(boolean)}), writes are plain,
+ * and durability is obtained by explicitly forcing files
+ * at commit, rollback, and checkpoint.
+ * <p>
+ * The file manager keeps the length of each open file in memory,
+ * and can grow files by a configurable extent of blocks at a time
+ * (see {@link #setExtentSize(int)}), so that neither
+ * {@link #size(String) size} nor {@link #append(String, ByteBuffer) append}
+ * needs to ask the operating system for the length of the file.
+ * <p>
+ * The number of simultaneously open file channels can be bounded
+ * (see {@link #setMaxOpenFiles(int)}); the least recently used channels
+ * are then closed, and reopened on demand.
+ * Temporary tables can be deleted as soon as they are no longer needed
+ * (see {@link #delete(String)}).
+ * <p>
+ * Table and index files can optionally be accessed with direct I/O
+ * (see {@link #setDirectIO(boolean)}), so that their blocks are cached
+ * only in the buffer pool and not also in the operating system's cache.
+ * <p>
+ * Individual files can be stored compressed (see {@link #setCompressed(String, boolean)}).
+ * The blocks of a compressed file are kept in a separate physical file,
+ * whose name has the suffix {@link #COMPRESSED_SUFFIX};
+ * see {@link CompressedBlocks} for its layout.
+ * Compressed files are never memory-mapped or accessed with direct I/O,
+ * and their reads and writes are serialized, per file.
  * @author Edward Sciore
  */
 public class FileMgr {
+   /**
+    * The number of blocks covered by a single memory-mapped region.
+    */
+   public static final int MAP_CHUNK_BLOCKS = 256;
+
+   /**
+    * The name of the file that holds the database's block size.
+    */
+   public static final String HEADER_FILE = "simpledb.hdr";
+
+   /**
+    * The suffix of the physical file that holds a compressed file.
+    */
+   public static final String COMPRESSED_SUFFIX = ".z";
+
+   private static final int MAX_ATTEMPTS = 3; // attempts at an I/O whose channel is closed under it
+
    private File dbDirectory;
    private boolean isNew;
-   private Map<String,FileChannel> openFiles = new HashMap<String,FileChannel>();
+   private int blocksize;
+   private boolean mapped = false;
+   private boolean groupsync = false;
+   private int extentsize = 1;
+   private ByteBuffer zeros;
+   private boolean direct = false;
+   private int alignment = 1;
+   private PageArena arena;
+   private int maxopen = Integer.MAX_VALUE;
+   private Map<String,DbFile> files = new ConcurrentHashMap<String,DbFile>();
+   private AtomicInteger openCount = new AtomicInteger();
+   private AtomicLong channelHits = new AtomicLong();
+   private AtomicLong channelOpens = new AtomicLong();
 
    /**
     * Creates a file manager for the specified database.
@@ -36,6 +118,18 @@ public class FileMgr {
     * @param dbname the name of the directory that holds the database
     */
    public FileMgr(String dbname) {
+      this(dbname, DEFAULT_BLOCK_SIZE);
+   }
+
+   /**
+    * Creates a file manager for the specified database,
+    * indicating the block size to use if the database is new.
+    * The block size of an existing database is read from its header file,
+    * and the specified block size is ignored.
+    * @param dbname the name of the directory that holds the database
+    * @param newblocksize the block size of a newly-created database
+    */
+   public FileMgr(String dbname, int newblocksize) {
       String homedir = System.getProperty("user.home");
       dbDirectory = new File(homedir, dbname);
       isNew = !dbDirectory.exists();
@@ -48,34 +142,141 @@ public class FileMgr {
       for (String filename : dbDirectory.list())
          if (filename.startsWith("temp"))
          new File(dbDirectory, filename).delete();
+
+      // determine the block size, and make it visible to the pages
+      blocksize = readBlockSize(newblocksize);
+      BLOCK_SIZE = blocksize;
    }
 
    /**
     * Reads the contents of a disk block into a bytebuffer.
+    * Reads are not serialized: any number of threads may
+    * read blocks concurrently, from the same or different files.
     * @param blk a reference to a disk block
     * @param bb  the bytebuffer
     */
-   synchronized void read(Block blk, ByteBuffer bb) {
+   void read(Block blk, ByteBuffer bb) {
       try {
-         bb.clear();
-         FileChannel fc = getFile(blk.fileName());
-         fc.read(bb, blk.number() * BLOCK_SIZE);
+         DbFile f = getFile(blk.fileName());
+         if (f.compressed) {
+            synchronized (f) {
+               f.blocks.read(openChannel(f), blk.number(), bb);
+            }
+            closeExcessChannels();
+            return;
+         }
+         ByteBuffer src = (mapped && !f.direct) ? mappedBlock(blk, f) : null;
+         if (src != null) {
+            bb.clear();
+            bb.put(src);
+            return;
+         }
+         for (int attempt=1; ; attempt++) {
+            FileChannel fc = channel(f);
+            try {
+               bb.clear();
+               fc.read(bb, (long) blk.number() * blocksize);
+               return;
+            }
+            catch (ClosedChannelException e) {
+               channelClosed(f, fc, e, attempt);
+            }
+         }
       }
       catch (IOException e) {
          throw new RuntimeException("cannot read block " + blk);
       }
    }
 
+   /**
+    * Reads the contents of consecutive disk blocks into bytebuffers,
+    * starting with the specified block.
+    * The blocks that are not available in a memory-mapped chunk
+    * are read with a single scattering read of the file's channel.
+    * @param blk a reference to the first disk block
+    * @param bbs the bytebuffers, one per block
+    */
+   void read(Block blk, ByteBuffer[] bbs) {
+      try {
+         DbFile f = getFile(blk.fileName());
+         if (f.compressed) {
+            synchronized (f) {
+               FileChannel fc = openChannel(f);
+               for (int i=0; i<bbs.length; i++)
+                  f.blocks.read(fc, blk.number() + i, bbs[i]);
+            }
+            closeExcessChannels();
+            return;
+         }
+         int first = 0;
+         if (mapped && !f.direct)
+            while (first < bbs.length) {
+               Block b = new Block(blk.fileName(), blk.number() + first);
+               ByteBuffer src = mappedBlock(b, f);
+               if (src == null)
+                  break;
+               bbs[first].clear();
+               bbs[first].put(src);
+               first++;
+            }
+         if (first == bbs.length)
+            return;
+         synchronized (f) {
+            FileChannel fc = openChannel(f);
+            long remaining = 0;
+            for (int i=first; i<bbs.length; i++) {
+               bbs[i].clear();
+               remaining += bbs[i].remaining();
+            }
+            fc.position((long) (blk.number() + first) * blocksize);
+            while (remaining > 0) {
+               long n = fc.read(bbs, first, bbs.length - first);
+               if (n < 0)
+                  break;
+               remaining -= n;
+            }
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read blocks starting at " + blk);
+      }
+   }
+
    /**
     * Writes the contents of a bytebuffer into a disk block.
+    * Like reads, writes to existing blocks are not serialized.
     * @param blk a reference to a disk block
     * @param bb  the bytebuffer
     */
-   synchronized void write(Block blk, ByteBuffer bb) {
+   void write(Block blk, ByteBuffer bb) {
       try {
-         bb.rewind();
-         FileChannel fc = getFile(blk.fileName());
-         fc.write(bb, blk.number() * BLOCK_SIZE);
+         DbFile f = getFile(blk.fileName());
+         if (f.compressed) {
+            synchronized (f) {
+               f.blocks.write(openChannel(f), blk.number(), bb);
+               f.unforced = true;
+               f.length = f.blocks.size();
+            }
+            closeExcessChannels();
+            return;
+         }
+         for (int attempt=1; ; attempt++) {
+            FileChannel fc = channel(f);
+            try {
+               bb.rewind();
+               fc.write(bb, (long) blk.number() * blocksize);
+               break;
+            }
+            catch (ClosedChannelException e) {
+               channelClosed(f, fc, e, attempt);
+            }
+         }
+         f.unforced = true;
+         if (blk.number() >= f.length)
+            synchronized (f) {
+               f.length = Math.max(f.length, blk.number() + 1);
+               f.allocated = Math.max(f.allocated, f.length);
+            }
       }
       catch (IOException e) {
          throw new RuntimeException("cannot write block" + blk);
@@ -85,32 +286,315 @@ public class FileMgr {
    /**
     * Appends the contents of a bytebuffer to the end
     * of the specified file.
+    * Appends to the same file are serialized,
+    * so that each one gets its own block;
+    * appends to different files proceed in parallel.
     * @param filename the name of the file
     * @param bb  the bytebuffer
     * @return a reference to the newly-created block.
     */
-   synchronized Block append(String filename, ByteBuffer bb) {
-      int newblknum = size(filename);
-      Block blk = new Block(filename, newblknum);
-      write(blk, bb);
-      return blk;
+   Block append(String filename, ByteBuffer bb) {
+      try {
+         DbFile f = getFile(filename);
+         Block blk;
+         synchronized (f) {
+            FileChannel fc = openChannel(f);
+            bb.rewind();
+            int newblknum = f.length;
+            if (f.compressed)
+               f.blocks.write(fc, newblknum, bb);
+            else {
+               fc.write(bb, (long) newblknum * blocksize);
+               if (newblknum >= f.allocated)
+                  extend(f, newblknum + 1);
+            }
+            f.unforced = true;
+            f.length = newblknum + 1;
+            blk = new Block(filename, newblknum);
+         }
+         closeExcessChannels();
+         return blk;
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot append to " + filename);
+      }
    }
 
    /**
     * Returns the number of blocks in the specified file.
+    * The length of each file is tracked in memory,
+    * so this method does not need to ask the operating system.
     * @param filename the name of the file
     * @return the number of blocks in the file
     */
-   public synchronized int size(String filename) {
+   public int size(String filename) {
       try {
-         FileChannel fc = getFile(filename);
-         return (int)(fc.size() / BLOCK_SIZE);
+         return getFile(filename).length;
       }
       catch (IOException e) {
          throw new RuntimeException("cannot access " + filename);
       }
    }
 
+   /**
+    * Returns true if the specified file exists in the database directory.
+    * Unlike the other methods, this method does not create the file.
+    * @param filename the name of the file
+    * @return true if the file exists
+    */
+   public boolean exists(String filename) {
+      return files.containsKey(filename)
+            || new File(dbDirectory, filename).exists()
+            || new File(dbDirectory, filename + COMPRESSED_SUFFIX).exists();
+   }
+
+   /**
+    * Returns the specified file of the database directory,
+    * for a component that keeps a small file of its own
+    * outside the blocks managed by the file manager.
+    * @param filename the name of the file
+    * @return the file
+    */
+   public File directoryFile(String filename) {
+      return new File(dbDirectory, filename);
+   }
+
+   /**
+    * Deletes the specified file from the database directory.
+    * The method is intended for temporary tables that are no longer needed;
+    * the caller is responsible for ensuring that no buffer
+    * still holds a block of the file.
+    * @param filename the name of the file
+    */
+   public void delete(String filename) {
+      DbFile f = files.remove(filename);
+      if (f != null)
+         synchronized (f) {
+            closeChannel(f);
+         }
+      new File(dbDirectory, filename).delete();
+      new File(dbDirectory, filename + COMPRESSED_SUFFIX).delete();
+      Block.forgetFile(filename);
+   }
+
+   /**
+    * Specifies whether the specified file should be stored compressed.
+    * Each block of a compressed file is compressed when it is written
+    * and decompressed when it is read, so the file takes less disk space
+    * and fewer bytes have to be read to scan it;
+    * in exchange, every write of a block appends a new copy of it,
+    * and the space of the old copies is reclaimed only when the file is next opened.
+    * Compression thus suits large tables that are mostly read.
+    * The choice is recorded in the database directory,
+    * and so persists when the database is reopened.
+    * The method must be called before the file has any blocks.
+    * @param filename the name of the file
+    * @param compressed true if the file should be stored compressed
+    */
+   public void setCompressed(String filename, boolean compressed) {
+      if (size(filename) > 0)
+         throw new RuntimeException("cannot change the storage of " + filename);
+      delete(filename);
+      if (compressed)
+         try {
+            new File(dbDirectory, filename + COMPRESSED_SUFFIX).createNewFile();
+         }
+         catch (IOException e) {
+            throw new RuntimeException("cannot create " + filename + COMPRESSED_SUFFIX);
+         }
+   }
+
+   /**
+    * Forces the writes made to the specified file out to disk.
+    * This method does nothing unless the file manager is in group-sync mode,
+    * because otherwise every write is already synchronous.
+    * @param filename the name of the file
+    */
+   public void force(String filename) {
+      if (!groupsync)
+         return;
+      try {
+         force(getFile(filename));
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot force " + filename);
+      }
+      closeExcessChannels();
+   }
+
+   /**
+    * Forces the writes made to every open database file out to disk.
+    * Files that have not been written since they were last forced are skipped,
+    * as are temporary files, whose contents never need to survive a crash.
+    * This method does nothing unless the file manager is in group-sync mode.
+    */
+   public void forceAll() {
+      if (!groupsync)
+         return;
+      for (Map.Entry<String,DbFile> e : files.entrySet()) {
+         if (e.getKey().startsWith("temp"))
+            continue;
+         try {
+            force(e.getValue());
+         }
+         catch (IOException ex) {
+            throw new RuntimeException("cannot force " + e.getKey());
+         }
+      }
+      closeExcessChannels();
+   }
+
+   /**
+    * Specifies whether block reads should be served
+    * from memory-mapped regions of the database files.
+    * This method must be called before any blocks are read.
+    * @param mapped true if block reads should use memory-mapped I/O
+    */
+   public void setMappedIO(boolean mapped) {
+      this.mapped = mapped;
+   }
+
+   /**
+    * Specifies the durability mode of the database files.
+    * By default, every file is opened in "rws" mode,
+    * so that each block write is synchronously written to disk.
+    * In group-sync mode, files are opened in "rw" mode and
+    * block writes are not synchronous;
+    * instead, the log manager forces the log when it is flushed,
+    * and the recovery manager calls {@link #forceAll()} before it
+    * writes a commit, rollback, or checkpoint record.
+    * This method must be called before any files are opened.
+    * @param groupsync true if writes should be forced only at commit and checkpoint
+    */
+   public void setGroupSync(boolean groupsync) {
+      this.groupsync = groupsync;
+   }
+
+   /**
+    * Specifies the number of blocks by which a file grows
+    * when an append reaches its end.
+    * The blocks beyond the appended one are preallocated with zeros,
+    * so that subsequent appends write into existing space.
+    * An extent size of 1 (the default) grows files one block at a time.
+    * @param extentsize the number of blocks to allocate at a time
+    */
+   public void setExtentSize(int extentsize) {
+      if (extentsize < 1)
+         throw new RuntimeException("invalid extent size " + extentsize);
+      this.extentsize = extentsize;
+      zeros = null;
+   }
+
+   /**
+    * Specifies whether table and index files should be
+    * accessed with direct I/O, bypassing the operating system's cache,
+    * so that the buffer pool is the only cache of their blocks.
+    * The log and temporary files always use buffered I/O.
+    * Direct I/O requires the block size to be a multiple of the
+    * file system's block size; if it is not, or if the
+    * file system does not support direct I/O, then
+    * a message is printed and buffered I/O is used.
+    * This method must be called before any files are opened.
+    * @param direct true if table and index files should use direct I/O
+    */
+   public void setDirectIO(boolean direct) {
+      this.direct = false;
+      alignment = 1;
+      if (!direct)
+         return;
+      try {
+         int fsblocksize = (int) Files.getFileStore(dbDirectory.toPath()).getBlockSize();
+         if (blocksize % fsblocksize != 0) {
+            System.out.println("direct I/O needs a block size that is a multiple of "
+                               + fsblocksize + "; using buffered I/O");
+            return;
+         }
+         alignment = fsblocksize;
+         this.direct = true;
+      }
+      catch (IOException | UnsupportedOperationException e) {
+         System.out.println("direct I/O is not supported; using buffered I/O");
+      }
+   }
+
+   /**
+    * Allocates a direct bytebuffer of the specified size,
+    * suitably aligned for the file manager's I/O mode.
+    * Pages obtain their contents from this method, so that
+    * they can be read and written with direct I/O.
+    * @param size the number of bytes in the buffer
+    * @return a new bytebuffer
+    */
+   ByteBuffer allocate(int size) {
+      if (alignment == 1)
+         return ByteBuffer.allocateDirect(size);
+      ByteBuffer bb = ByteBuffer.allocateDirect(size + alignment - 1).alignedSlice(alignment);
+      bb.limit(size);
+      return bb.slice();
+   }
+
+   /**
+    * Returns the arena from which the buffer frames and the
+    * log page get their contents.
+    * The arena is created on first use, with the alignment
+    * of the file manager's I/O mode at that time.
+    * @return the page arena
+    */
+   public synchronized PageArena arena() {
+      if (arena == null)
+         arena = new PageArena(blocksize, alignment);
+      return arena;
+   }
+
+   /**
+    * Specifies the maximum number of file channels that
+    * the file manager keeps open at the same time.
+    * When the limit is exceeded, the least recently used
+    * channels are closed; a closed file is reopened
+    * the next time one of its blocks is accessed.
+    * @param maxopen the maximum number of open channels
+    */
+   public void setMaxOpenFiles(int maxopen) {
+      if (maxopen < 1)
+         throw new RuntimeException("invalid open file limit " + maxopen);
+      this.maxopen = maxopen;
+   }
+
+   /**
+    * Returns the number of file channels that are currently open.
+    * @return the number of open channels
+    */
+   public int openChannels() {
+      return openCount.get();
+   }
+
+   /**
+    * Returns the number of times that a block access found
+    * its file's channel already open.
+    * @return the number of open-file cache hits
+    */
+   public long channelHits() {
+      return channelHits.get();
+   }
+
+   /**
+    * Returns the number of times that a file channel had to be opened,
+    * either because the file was new to the file manager or
+    * because its channel had been closed by the open-file cache.
+    * @return the number of channel opens
+    */
+   public long channelOpens() {
+      return channelOpens.get();
+   }
+
+   /**
+    * Returns the block size of the database.
+    * @return the number of bytes in a block
+    */
+   public int blockSize() {
+      return blocksize;
+   }
+
    /**
     * Returns a boolean indicating whether the file manager
     * had to create a new database directory.
@@ -121,22 +605,369 @@ public class FileMgr {
    }
 
    /**
-    * Returns the file channel for the specified filename.
-    * The file channel is stored in a map keyed on the filename.
-    * If the file is not open, then it is opened and the file channel
-    * is added to the map.
+    * Returns the block size stored in the database's header file.
+    * If the database has no header file, then one is created.
+    * A new database gets the specified block size;
+    * an existing database without a header file predates
+    * configurable block sizes, and so uses the default size.
+    * @param newblocksize the block size of a newly-created database
+    * @return the block size of the database
+    */
+   private int readBlockSize(int newblocksize) {
+      File header = new File(dbDirectory, HEADER_FILE);
+      try {
+         if (header.exists()) {
+            RandomAccessFile f = new RandomAccessFile(header, "r");
+            try {
+               return checkBlockSize(f.readInt());
+            }
+            finally {
+               f.close();
+            }
+         }
+         int size = checkBlockSize(isNew ? newblocksize : DEFAULT_BLOCK_SIZE);
+         RandomAccessFile f = new RandomAccessFile(header, "rws");
+         try {
+            f.writeInt(size);
+         }
+         finally {
+            f.close();
+         }
+         return size;
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot access " + HEADER_FILE);
+      }
+   }
+
+   private int checkBlockSize(int size) {
+      if (size <= 0 || size % INT_SIZE != 0)
+         throw new RuntimeException("invalid block size " + size);
+      return size;
+   }
+
+   /**
+    * Grows the file to hold at least the specified number of blocks,
+    * preallocating the rest of the extent.
+    * The method is called while holding the file's monitor.
+    * @param f the open file
+    * @param needed the number of blocks the file must hold
+    * @throws IOException
+    */
+   private void extend(DbFile f, int needed) throws IOException {
+      f.allocated = needed;
+      if (extentsize > 1) {
+         if (zeros == null)
+            zeros = allocate((extentsize - 1) * blocksize);
+         ByteBuffer extent = zeros.duplicate();
+         openChannel(f).write(extent, (long) needed * blocksize);
+         f.allocated = needed + extentsize - 1;
+      }
+   }
+
+   /**
+    * Returns the number of blocks in a file that is being opened,
+    * ignoring trailing blocks that contain only zeros.
+    * Such blocks are the unused part of a preallocated extent
+    * left behind when the system last stopped;
+    * a freshly formatted record or log page that was never written to
+    * is also all zeros, and so can be dropped safely.
+    * @param channel the file's channel
+    * @param allocated the number of blocks physically in the file
+    * @return the logical number of blocks in the file
+    * @throws IOException
+    */
+   private int usedLength(FileChannel channel, int allocated) throws IOException {
+      ByteBuffer bb = allocate(blocksize);
+      int length = allocated;
+      while (length > 0) {
+         bb.clear();
+         channel.read(bb, (long) (length - 1) * blocksize);
+         for (int i=0; i<blocksize; i++)
+            if (bb.get(i) != 0)
+               return length;
+         length--;
+      }
+      return 0;
+   }
+
+   /**
+    * Rewrites a compressed file without its superseded block images.
+    * The current images are copied to a new file,
+    * which then atomically replaces the old one.
+    * The method is called while holding the file's monitor.
+    * @param f the compressed file
+    * @throws IOException
+    */
+   private void compact(DbFile f) throws IOException {
+      Path path = new File(dbDirectory, f.filename + COMPRESSED_SUFFIX).toPath();
+      Path newpath = new File(dbDirectory, f.filename + COMPRESSED_SUFFIX + ".new").toPath();
+      FileChannel out = FileChannel.open(newpath, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                         StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+      try {
+         f.blocks = f.blocks.copyTo(openChannel(f), out);
+         out.force(true);
+      }
+      finally {
+         out.close();
+      }
+      closeChannel(f);
+      Files.move(newpath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   private void force(DbFile f) throws IOException {
+      synchronized (f) {
+         if (f.unforced) {
+            f.unforced = false;
+            openChannel(f).force(true);
+         }
+      }
+   }
+
+   /**
+    * Returns a view of the specified block within its
+    * memory-mapped chunk, mapping the chunk if necessary.
+    * Returns null if the chunk containing the block
+    * extends past the current end of the file,
+    * in which case the block must be read from the channel.
+    * @param blk a reference to a disk block
+    * @param f the open file containing the block
+    * @return a view of the block's bytes, or null
+    * @throws IOException
+    */
+   private ByteBuffer mappedBlock(Block blk, DbFile f) throws IOException {
+      int chunk = blk.number() / MAP_CHUNK_BLOCKS;
+      long chunksize = (long) MAP_CHUNK_BLOCKS * blocksize;
+      if (chunk >= f.chunks.size()) {
+         synchronized (f) {
+            if ((long) (chunk + 1) * MAP_CHUNK_BLOCKS > f.allocated)
+               return null;
+            while (f.chunks.size() <= chunk)
+               f.chunks.add(openChannel(f).map(FileChannel.MapMode.READ_ONLY, f.chunks.size() * chunksize, chunksize));
+         }
+      }
+      ByteBuffer view = f.chunks.get(chunk).duplicate();
+      int pos = (blk.number() % MAP_CHUNK_BLOCKS) * blocksize;
+      view.limit(pos + blocksize);
+      view.position(pos);
+      return view;
+   }
+
+   /**
+    * Returns the file object for the specified filename.
+    * The file objects are stored in a map keyed on the filename.
+    * If the file is new to the file manager, then it is opened,
+    * its length is determined, and it is added to the map.
+    * Only the creation of a file object is synchronized;
+    * looking up an existing one takes no lock.
     * @param filename the specified filename
-    * @return the file channel associated with the open file.
+    * @return the file object
+    * @throws IOException
+    */
+   private DbFile getFile(String filename) throws IOException {
+      DbFile f = files.get(filename);
+      if (f == null) {
+         synchronized (files) {
+            f = files.get(filename);
+            if (f == null) {
+               f = new DbFile(filename);
+               f.compressed = new File(dbDirectory, filename + COMPRESSED_SUFFIX).exists();
+               f.direct = direct && !f.compressed && filename.endsWith(".tbl") && !filename.startsWith("temp");
+               synchronized (f) {
+                  FileChannel fc = openChannel(f);
+                  if (f.compressed) {
+                     f.blocks = new CompressedBlocks(fc, blocksize);
+                     if (f.blocks.needsCompaction())
+                        compact(f);
+                     f.allocated = f.length = f.blocks.size();
+                  }
+                  else {
+                     f.allocated = (int)(fc.size() / blocksize);
+                     f.length = usedLength(fc, f.allocated);
+                  }
+               }
+               files.put(filename, f);
+            }
+         }
+         closeExcessChannels();
+      }
+      return f;
+   }
+
+   /**
+    * Returns an open channel for the specified file,
+    * reopening the file if its channel was closed.
+    * The returned channel may be closed concurrently by the open-file cache,
+    * or by the interruption of another thread that is using it,
+    * in which case the caller should ask for the channel again.
+    * @param f the file object
+    * @return the file's channel
     * @throws IOException
     */
-   private FileChannel getFile(String filename) throws IOException {
-      FileChannel fc = openFiles.get(filename);
-      if (fc == null) {
-         File dbTable = new File(dbDirectory, filename);
-         RandomAccessFile f = new RandomAccessFile(dbTable, "rws");
-         fc = f.getChannel();
-         openFiles.put(filename, fc);
+   private FileChannel channel(DbFile f) throws IOException {
+      FileChannel fc = f.channel;
+      if (fc != null && fc.isOpen()) {
+         channelHits.incrementAndGet();
+         f.lastUsed = System.nanoTime();
+         return fc;
       }
+      synchronized (f) {
+         fc = openChannel(f);
+      }
+      closeExcessChannels();
       return fc;
    }
+
+   /**
+    * Handles an I/O that failed because the channel it used was closed,
+    * either by the open-file cache or because a thread using the channel
+    * was interrupted, which makes the channel close itself.
+    * In the second case the file manager still holds the dead channel,
+    * so it is forgotten, and the next access reopens the file.
+    * The I/O can then be attempted again, unless the calling thread
+    * was the one interrupted, or it has failed too many times.
+    * @param f the file object
+    * @param fc the channel that was closed
+    * @param e the exception thrown by the I/O
+    * @param attempt the number of attempts made so far
+    * @throws ClosedChannelException if the I/O should not be attempted again
+    */
+   private void channelClosed(DbFile f, FileChannel fc, ClosedChannelException e, int attempt)
+         throws ClosedChannelException {
+      synchronized (f) {
+         if (f.channel == fc)
+            forgetClosedChannel(f);
+      }
+      if (e instanceof ClosedByInterruptException || attempt >= MAX_ATTEMPTS)
+         throw e;
+   }
+
+   /**
+    * Forgets the channel of the specified file if it is no longer open,
+    * because a thread was interrupted while using it.
+    * The method is called while holding the file's monitor.
+    * @param f the file object
+    */
+   private void forgetClosedChannel(DbFile f) {
+      if (f.channel != null && !f.channel.isOpen()) {
+         f.channel = null;
+         openCount.decrementAndGet();
+      }
+   }
+
+   /**
+    * Returns the channel of the specified file, opening it if necessary.
+    * A channel that was closed by the interruption of a thread is replaced.
+    * The method is called while holding the file's monitor,
+    * which prevents the channel from being closed until the monitor is released.
+    * @param f the file object
+    * @return the file's channel
+    * @throws IOException
+    */
+   private FileChannel openChannel(DbFile f) throws IOException {
+      f.lastUsed = System.nanoTime();
+      forgetClosedChannel(f);
+      if (f.channel == null) {
+         String name = f.compressed ? f.filename + COMPRESSED_SUFFIX : f.filename;
+         File dbTable = new File(dbDirectory, name);
+         if (f.direct) {
+            Set<OpenOption> options = new HashSet<OpenOption>();
+            options.add(StandardOpenOption.READ);
+            options.add(StandardOpenOption.WRITE);
+            options.add(StandardOpenOption.CREATE);
+            options.add(ExtendedOpenOption.DIRECT);
+            if (!groupsync)
+               options.add(StandardOpenOption.SYNC);
+            f.channel = FileChannel.open(dbTable.toPath(), options);
+         }
+         else {
+            RandomAccessFile raf = new RandomAccessFile(dbTable, groupsync ? "rw" : "rws");
+            f.channel = raf.getChannel();
+         }
+         openCount.incrementAndGet();
+         channelOpens.incrementAndGet();
+      }
+      return f.channel;
+   }
+
+   /**
+    * Closes the least recently used channels until
+    * no more than the maximum number of channels are open.
+    * The method must not be called while holding a file's monitor.
+    */
+   private void closeExcessChannels() {
+      while (openCount.get() > maxopen) {
+         DbFile victim = null;
+         for (DbFile f : files.values())
+            if (f.channel != null && (victim == null || f.lastUsed < victim.lastUsed))
+               victim = f;
+         if (victim == null)
+            return;
+         synchronized (victim) {
+            forgetClosedChannel(victim);
+            if (victim.channel == null)
+               continue;
+            try {
+               if (groupsync && victim.unforced && !victim.filename.startsWith("temp")) {
+                  victim.unforced = false;
+                  victim.channel.force(true);
+               }
+            }
+            catch (IOException e) {
+               throw new RuntimeException("cannot force " + victim.filename);
+            }
+            closeChannel(victim);
+         }
+      }
+   }
+
+   /**
+    * Closes the channel of the specified file, if it is open.
+    * The method is called while holding the file's monitor.
+    * @param f the file object
+    */
+   private void closeChannel(DbFile f) {
+      if (f.channel == null)
+         return;
+      try {
+         f.channel.close();
+      }
+      catch (IOException e) {
+         // the channel is unusable anyway
+      }
+      f.channel = null;
+      openCount.decrementAndGet();
+   }
+
+   /**
+    * A database file known to the file manager.
+    * The object holds the file's channel (which is null
+    * if the open-file cache has closed it) and its memory-mapped chunks,
+    * and its monitor serializes the operations that
+    * extend the file or its mapping, or close its channel.
+    * The unforced flag records whether the file has been written
+    * since it was last forced to disk.
+    * The length is the number of blocks in use, and
+    * the allocated size is the number of blocks physically in the file;
+    * the two differ when the file has a preallocated extent.
+    * The direct flag records whether the file bypasses the operating system's cache.
+    * A compressed file has no mapped chunks or preallocated extent;
+    * instead, it holds the map of its block images.
+    */
+   private static class DbFile {
+      String filename;
+      boolean direct;
+      boolean compressed;
+      CompressedBlocks blocks;
+      volatile FileChannel channel;
+      volatile long lastUsed;
+      List<MappedByteBuffer> chunks = new CopyOnWriteArrayList<MappedByteBuffer>();
+      volatile boolean unforced = false;
+      volatile int length;
+      int allocated;
+
+      DbFile(String filename) {
+         this.filename = filename;
+      }
+   }
 }
@@ -37,12 +37,21 @@ import java.nio.charset.Charset;
  */
 public class Page {
    /**
-    * The number of bytes in a block.
+    * The default number of bytes in a block.
     * This value is set unreasonably low, so that it is easier
     * to create and test databases having a lot of blocks.
     * A more realistic value would be 4K.
     */
-   public static final int BLOCK_SIZE = 400;
+   public static final int DEFAULT_BLOCK_SIZE = 400;
+
+   /**
+    * The number of bytes in a block.
+    * The block size is chosen when a database is created and
+    * is stored in the database's header file.
+    * This value is set by the {@link FileMgr} constructor
+    * when the database is opened, and must not change afterwards.
+    */
+   public static int BLOCK_SIZE = DEFAULT_BLOCK_SIZE;
    
    /**
     * The size of an integer in bytes.
@@ -62,12 +71,29 @@ public class Page {
     * @return the maximum number of bytes required to store a string of size n
     */
    public static final int STR_SIZE(int n) {
-      float bytesPerChar = Charset.defaultCharset().newEncoder().maxBytesPerChar();
-      return INT_SIZE + (n * (int)bytesPerChar);
+      return INT_SIZE + (n * BYTES_PER_CHAR);
    }
    
-   private ByteBuffer contents = ByteBuffer.allocateDirect(BLOCK_SIZE);
+   /**
+    * The maximum number of bytes used to encode a char
+    * in the JVM's default charset.
+    * It is computed once, instead of creating an encoder
+    * every time {@link #STR_SIZE(int)} is called.
+    */
+   private static final int BYTES_PER_CHAR =
+         (int) Charset.defaultCharset().newEncoder().maxBytesPerChar();
+   
+   /**
+    * True if the default charset encodes each US-ASCII char
+    * as the single byte having the same value.
+    * In that case, strings made of ASCII characters can be compared
+    * and hashed directly on their encoded bytes.
+    */
+   private static final boolean ASCII_BYTES = asciiBytes();
+   
    private FileMgr filemgr = SimpleDB.fileMgr();
+   private ByteBuffer contents;
+   private PageArena arena; // the arena holding the contents, if any
    
    /**
     * Creates a new page.  Although the constructor takes no arguments,
@@ -81,7 +107,32 @@ public class Page {
     * {@link simpledb.server.SimpleDB#initFileLogAndBufferMgr(String)}
     * is called first.
     */
-   public Page() {}
+   public Page() {
+      contents = filemgr.allocate(BLOCK_SIZE);
+   }
+   
+   /**
+    * Creates a new page whose contents are a slice of the specified arena.
+    * The page should be released when it is no longer needed.
+    * @param arena the arena, obtained from {@link FileMgr#arena()}
+    */
+   public Page(PageArena arena) {
+      this.arena = arena;
+      contents = arena.allocate();
+   }
+   
+   /**
+    * Returns the contents of the page to its arena.
+    * The page must not be used afterwards.
+    * The method has no effect on a page that is not in an arena.
+    */
+   public synchronized void release() {
+      if (arena != null) {
+         arena.free(contents);
+         arena = null;
+         contents = null;
+      }
+   }
    
    /**
     * Populates the page with the contents of the specified disk block. 
@@ -91,6 +142,21 @@ public class Page {
       filemgr.read(blk, contents);
    }
    
+   /**
+    * Populates the specified pages with the contents of
+    * consecutive disk blocks, starting with the specified block.
+    * The blocks are read using a single I/O request
+    * rather than one request per block.
+    * @param blk a reference to the first disk block
+    * @param pages the pages to populate, one per block
+    */
+   public static void read(Block blk, Page[] pages) {
+      ByteBuffer[] bbs = new ByteBuffer[pages.length];
+      for (int i=0; i<pages.length; i++)
+         bbs[i] = pages[i].contents;
+      SimpleDB.fileMgr().read(blk, bbs);
+   }
+   
    /**
     * Writes the contents of the page to the specified disk block.
     * @param blk a reference to a disk block
@@ -156,4 +222,49 @@ public class Page {
       contents.putInt(byteval.length);
       contents.put(byteval);
    }
+   
+   /**
+    * Compares the string value at the specified offset of the page
+    * with the specified encoded string, without extracting the string
+    * from the page.
+    * The result has the same sign as
+    * <code>getString(offset).compareTo(new String(key))</code>.
+    * If a string was not stored at that location,
+    * the behavior of the method is unpredictable.
+    * @param offset the byte offset within the page
+    * @param key the string to compare with, encoded in the default charset
+    * @return a negative integer, zero, or a positive integer as the
+    * string in the page is less than, equal to, or greater than the key
+    */
+   public synchronized int compareString(int offset, byte[] key) {
+      int len = contents.getInt(offset);
+      if (!ASCII_BYTES)
+         return getString(offset).compareTo(new String(key));
+      int pos = offset + INT_SIZE;
+      int n = Math.min(len, key.length);
+      for (int i=0; i<n; i++) {
+         int b = contents.get(pos+i) & 0xff;
+         int k = key[i] & 0xff;
+         if (b != k) {
+            if (b < 0x80 && k < 0x80)
+               return b - k;
+            // non-ASCII characters are compared as Java strings
+            return getString(offset).compareTo(new String(key));
+         }
+      }
+      return len - key.length;
+   }
+   
+   private static boolean asciiBytes() {
+      char[] chars = new char[128];
+      for (int i=0; i<chars.length; i++)
+         chars[i] = (char) i;
+      byte[] bytes = new String(chars).getBytes();
+      if (bytes.length != chars.length)
+         return false;
+      for (int i=0; i<bytes.length; i++)
+         if (bytes[i] != i)
+            return false;
+      return true;
+   }
 }
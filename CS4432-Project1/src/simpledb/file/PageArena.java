@@ -0,0 +1,123 @@
+package simpledb.file;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A region of off-heap memory from which the long-lived pages
+ * of the system (the buffer frames and the log page) get their contents.
+ * The arena reserves one large direct bytebuffer, aligned for the
+ * file manager's I/O mode, and hands out block-sized slices of it;
+ * this avoids a separate direct allocation (and cleaner) per page,
+ * keeps the pages contiguous, and makes the memory used for pages exact.
+ * <p>
+ * A page that is no longer needed returns its slice with {@link Page#release()},
+ * and the slice is reused for the next page.
+ * If every slice is in use, the arena reserves another region,
+ * of half the arena's current size; {@link #reserve(int)} can be called
+ * beforehand so that a known number of pages fits in one region.
+ * <p>
+ * The arena is obtained from {@link FileMgr#arena()}.
+ */
+public class PageArena {
+   private static final int MIN_REGION_PAGES = 16;
+
+   private int pagesize, slotsize, alignment;
+   private ArrayDeque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+   private int pages = 0;
+   private int regions = 0;
+   private long reserved = 0;
+
+   /**
+    * Creates an empty arena for pages of the specified size.
+    * @param pagesize the size of a page
+    * @param alignment the alignment of each page's contents
+    */
+   PageArena(int pagesize, int alignment) {
+      this.pagesize = pagesize;
+      this.alignment = alignment;
+      slotsize = (pagesize + alignment - 1) / alignment * alignment;
+   }
+
+   /**
+    * Makes sure that the specified number of pages can be
+    * allocated without reserving more memory,
+    * by reserving a single region for the missing pages.
+    * @param count the number of pages
+    */
+   public synchronized void reserve(int count) {
+      if (count > free.size())
+         addRegion(count - free.size());
+   }
+
+   /**
+    * Allocates the contents of a page.
+    * @return a zeroed bytebuffer of the page size
+    */
+   synchronized ByteBuffer allocate() {
+      if (free.isEmpty())
+         addRegion(Math.max(MIN_REGION_PAGES, pages / 2));
+      ByteBuffer bb = free.pop();
+      bb.clear();
+      return bb;
+   }
+
+   /**
+    * Returns the contents of a page to the arena.
+    * The contents are zeroed, so that a reused slice
+    * looks like a newly allocated one.
+    * @param bb a bytebuffer allocated by this arena
+    */
+   synchronized void free(ByteBuffer bb) {
+      for (int i=0; i<pagesize; i++)
+         bb.put(i, (byte) 0);
+      free.push(bb);
+   }
+
+   /**
+    * Returns the number of pages that the arena has room for.
+    * @return the number of pages
+    */
+   public synchronized int pages() {
+      return pages;
+   }
+
+   /**
+    * Returns the number of pages that are currently allocated.
+    * @return the number of allocated pages
+    */
+   public synchronized int allocated() {
+      return pages - free.size();
+   }
+
+   /**
+    * Returns the number of bytes of off-heap memory reserved by the arena,
+    * including alignment padding.
+    * @return the number of bytes reserved
+    */
+   public synchronized long reservedBytes() {
+      return reserved;
+   }
+
+   /**
+    * Returns the number of regions that the arena has reserved.
+    * @return the number of regions
+    */
+   public synchronized int regions() {
+      return regions;
+   }
+
+   private void addRegion(int count) {
+      long size = (long) count * slotsize + alignment - 1;
+      if (size > Integer.MAX_VALUE)
+         throw new RuntimeException("page arena region too large: " + count + " pages");
+      ByteBuffer region = ByteBuffer.allocateDirect((int) size);
+      if (alignment > 1)
+         region = region.alignedSlice(alignment);
+      for (int i=count-1; i>=0; i--)
+         free.push(region.slice(i * slotsize, pagesize));
+      pages += count;
+      regions++;
+      reserved += size;
+   }
+}
@@ -50,7 +50,7 @@ public class BTreeLeaf {
       currentslot++;
       if (currentslot >= contents.getNumRecs()) 
          return tryOverflow();
-      else if (contents.getDataVal(currentslot).equals(searchkey))
+      else if (contents.compareDataVal(currentslot, searchkey) == 0)
          return true;
       else 
          return tryOverflow();
@@ -94,7 +94,7 @@ public class BTreeLeaf {
    	// and the searchkey of the new record would be lowest in its page, 
    	// we need to first move the entire contents of that page to a new block
    	// and then insert the new record in the now-empty current page.
-   	if (contents.getFlag() >= 0 && contents.getDataVal(0).compareTo(searchkey) > 0) {
+   	if (contents.getFlag() >= 0 && contents.compareDataVal(0, searchkey) > 0) {
    		Constant firstval = contents.getDataVal(0);
    		Block newblk = contents.split(0, contents.getFlag());
    		currentslot = 0;
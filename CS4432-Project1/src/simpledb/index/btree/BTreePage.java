@@ -43,7 +43,7 @@ public class BTreePage {
     */
    public int findSlotBefore(Constant searchkey) {
       int slot = 0;
-      while (slot < getNumRecs() && getDataVal(slot).compareTo(searchkey) < 0)
+      while (slot < getNumRecs() && compareDataVal(slot, searchkey) < 0)
          slot++;
       return slot-1;
    }
@@ -91,6 +91,24 @@ public class BTreePage {
       return getVal(slot, "dataval");
    }
    
+   /**
+    * Compares the dataval of the record at the specified slot
+    * with the specified search key.
+    * String datavals are compared in place,
+    * without extracting them from the page.
+    * @param slot the integer slot of an index record
+    * @param searchkey the search key
+    * @return a negative integer, zero, or a positive integer as the
+    * dataval is less than, equal to, or greater than the search key
+    */
+   public int compareDataVal(int slot, Constant searchkey) {
+      if (ti.schema().type("dataval") != INTEGER && searchkey instanceof StringConstant) {
+         int pos = fldpos(slot, "dataval");
+         return tx.compareString(currentblk, pos, ((StringConstant)searchkey).asBytes());
+      }
+      return getDataVal(slot).compareTo(searchkey);
+   }
+   
    /**
     * Returns the value of the page's flag field
     * @return the value of the page's flag field
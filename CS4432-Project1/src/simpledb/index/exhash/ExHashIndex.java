@@ -175,7 +175,7 @@ public class ExHashIndex implements Index {
 	 */
 	public boolean next() {
 		while (ts.next())
-			if (ts.getVal("dataval").equals(searchkey))
+			if (ts.matches("dataval", searchkey))
 				return true;
 		return false;
 	}
@@ -58,7 +58,7 @@ public class HashIndex implements Index {
 	 */
 	public boolean next() {
 		while (ts.next())
-			if (ts.getVal("dataval").equals(searchkey))
+			if (ts.matches("dataval", searchkey))
 				return true;
 		return false;
 	}
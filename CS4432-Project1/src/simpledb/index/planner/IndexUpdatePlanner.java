@@ -104,7 +104,7 @@ public class IndexUpdatePlanner implements UpdatePlanner {
    }
    
    public int executeCreateTable(CreateTableData data, Transaction tx) {
-      SimpleDB.mdMgr().createTable(data.tableName(), data.newSchema(), tx);
+      SimpleDB.mdMgr().createTable(data.tableName(), data.newSchema(), data.isCompressed(), tx);
       return 0;
    }
    
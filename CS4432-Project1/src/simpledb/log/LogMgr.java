@@ -23,7 +23,7 @@ public class LogMgr implements Iterable<BasicLogRecord> {
    public static final int LAST_POS = 0;
 
    private String logfile;
-   private Page mypage = new Page();
+   private Page mypage = new Page(SimpleDB.fileMgr().arena());
    private Block currentblk;
    private int currentpos;
 
@@ -56,11 +56,20 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     * Ensures that the log records corresponding to the
     * specified LSN has been written to disk.
     * All earlier log records will also be written to disk.
+    * The log file is forced, so that the records are durable
+    * even if the file manager does not write synchronously.
+    * The method is called by any thread that writes a buffer, so the
+    * page is written while holding the log manager's lock; otherwise
+    * it could be written to the wrong block while a concurrent
+    * append is moving to the next block.
     * @param lsn the LSN of a log record
     */
    public void flush(int lsn) {
-      if (lsn >= currentLSN())
-         flush();
+      synchronized (this) {
+         if (lsn >= currentLSN())
+            flush();
+      }
+      SimpleDB.fileMgr().force(logfile);
    }
 
    /**
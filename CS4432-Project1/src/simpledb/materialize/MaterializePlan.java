@@ -26,7 +26,8 @@ public class MaterializePlan implements Plan {
    /**
     * This method loops through the underlying query,
     * copying its output records into a temporary table.
-    * It then returns a table scan for that table.
+    * It then returns a scan for that table, which
+    * deletes the table when it is closed.
     * @see simpledb.query.Plan#open()
     */
    public Scan open() {
@@ -40,8 +41,8 @@ public class MaterializePlan implements Plan {
             dest.setVal(fldname, src.getVal(fldname));
       }
       src.close();
-      dest.beforeFirst();
-      return dest;
+      dest.close();
+      return new MaterializeScan(temp);
    }
    
    /**
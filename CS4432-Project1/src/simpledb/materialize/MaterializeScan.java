@@ -0,0 +1,78 @@
+package simpledb.materialize;
+
+import simpledb.record.RecordFile;
+import simpledb.query.*;
+
+/**
+ * The Scan class for the <i>materialize</i> operator.
+ * The scan reads the temporary table that holds the
+ * materialized records, and deletes the table when it is closed.
+ */
+public class MaterializeScan implements Scan {
+   private Scan s;
+   private TempTable temp;
+
+   /**
+    * Creates a scan of the specified temporary table.
+    * @param temp the temporary table holding the materialized records
+    */
+   public MaterializeScan(TempTable temp) {
+      this.temp = temp;
+      s = temp.open();
+   }
+
+   /**
+    * @see simpledb.query.Scan#beforeFirst()
+    */
+   public void beforeFirst() {
+      s.beforeFirst();
+   }
+
+   /**
+    * @see simpledb.query.Scan#next()
+    */
+   public boolean next() {
+      return s.next();
+   }
+
+   /**
+    * Closes the scan of the temporary table, and deletes the table.
+    * @see simpledb.query.Scan#close()
+    */
+   public void close() {
+      s.close();
+      temp.close();
+   }
+
+   /**
+    * @see simpledb.query.Scan#getVal(java.lang.String)
+    */
+   public Constant getVal(String fldname) {
+      return s.getVal(fldname);
+   }
+
+   /**
+    * @see simpledb.query.Scan#getInt(java.lang.String)
+    */
+   public int getInt(String fldname) {
+      return s.getInt(fldname);
+   }
+
+   /**
+    * @see simpledb.query.Scan#getString(java.lang.String)
+    */
+   public String getString(String fldname) {
+      return s.getString(fldname);
+   }
+
+   /**
+    * @see simpledb.query.Scan#hasField(java.lang.String)
+    */
+   public boolean hasField(String fldname) {
+      return s.hasField(fldname);
+   }
+
+   public RecordFile getRecordFile() {
+      return s.getRecordFile();
+   }
+}
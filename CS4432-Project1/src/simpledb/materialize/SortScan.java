@@ -20,6 +20,7 @@ public class SortScan implements Scan {
    private RecordComparator comp;
    private boolean hasmore1, hasmore2=false;
    private List<RID> savedposition;
+   private List<TempTable> runs;
    private RecordFile origRecord;
    
    /**
@@ -31,6 +32,7 @@ public class SortScan implements Scan {
     */
    public SortScan(List<TempTable> runs, RecordComparator comp, RecordFile origRecord) {
 	  this.origRecord = origRecord;
+      this.runs = runs;
       this.comp = comp;
       s1 = (UpdateScan) runs.get(0).open();
       hasmore1 = s1.next();
@@ -94,13 +96,16 @@ public class SortScan implements Scan {
    }
    
    /**
-    * Closes the two underlying scans.
+    * Closes the two underlying scans,
+    * and deletes their temporary tables.
     * @see simpledb.query.Scan#close()
     */
    public void close() {
       s1.close();
       if (s2 != null)
          s2.close();
+      for (TempTable run : runs)
+         run.close();
    }
    
    /**
@@ -1,5 +1,6 @@
 package simpledb.materialize;
 
+import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
 import simpledb.query.*;
@@ -35,6 +36,18 @@ public class TempTable {
       return new TableScan(ti, tx);
    }
    
+   /**
+    * Deletes the temporary table.
+    * The table's buffers are discarded and its file is removed,
+    * so the table must not be used afterwards.
+    * All scans of the table must be closed before calling this method.
+    */
+   public void close() {
+      String filename = ti.fileName();
+      SimpleDB.bufferMgr().discard(filename);
+      SimpleDB.fileMgr().delete(filename);
+   }
+   
    /**
     * Return the table's metadata.
     * @return the table's metadata
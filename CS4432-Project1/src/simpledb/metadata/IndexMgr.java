@@ -1,6 +1,7 @@
 package simpledb.metadata;
 
 import static simpledb.metadata.TableMgr.MAX_NAME;
+import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
 import java.util.*;
@@ -16,7 +17,9 @@ public class IndexMgr {
    /**
     * Creates the index manager.
     * This constructor is called during system startup.
-    * If the database is new, then the <i>idxcat</i> table is created.
+    * If the database is new, then the <i>idxcat</i> table is created;
+    * otherwise the names of the existing indexes are registered with
+    * the buffer manager, so that their files go to its index sub-pool.
     * @param isnew indicates whether this is a new database
     * @param tx the system startup transaction
     */
@@ -30,6 +33,12 @@ public class IndexMgr {
          tblmgr.createTable("idxcat", sch, tx);
       }
       ti = tblmgr.getTableInfo("idxcat", tx);
+      if (!isnew) {
+         RecordFile rf = new RecordFile(ti, tx);
+         while (rf.next())
+            SimpleDB.bufferMgr().addIndex(rf.getString("indexname"));
+         rf.close();
+      }
    }
    
    /**
@@ -42,6 +51,7 @@ public class IndexMgr {
     * @param tx the calling transaction
     */
    public void createIndex(String indextype, String idxname, String tblname, String fldname, Transaction tx) {
+      SimpleDB.bufferMgr().addIndex(idxname);
       RecordFile rf = new RecordFile(ti, tx);
       rf.insert();
       rf.setString("indexname", idxname);
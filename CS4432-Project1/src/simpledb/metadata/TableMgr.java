@@ -56,7 +56,24 @@ public class TableMgr {
     * @param tx the transaction creating the table
     */
    public void createTable(String tblname, Schema sch, Transaction tx) {
+      createTable(tblname, sch, false, tx);
+   }
+   
+   /**
+    * Creates a new table having the specified name and schema,
+    * indicating whether the table's file should be stored compressed.
+    * Making the file compressed is part of the transaction,
+    * and so is undone if the transaction rolls back.
+    * @see simpledb.file.FileMgr#setCompressed(String, boolean)
+    * @param tblname the name of the new table
+    * @param sch the table's schema
+    * @param compressed true if the table should be stored compressed
+    * @param tx the transaction creating the table
+    */
+   public void createTable(String tblname, Schema sch, boolean compressed, Transaction tx) {
       TableInfo ti = new TableInfo(tblname, sch);
+      if (compressed)
+         tx.setCompressed(ti.fileName());
       // insert one record into tblcat
       RecordFile tcatfile = new RecordFile(tcatInfo, tx);
       tcatfile.insert();
@@ -32,9 +32,13 @@ public class ChunkScan implements Scan {
       this.endbnum   = endbnum;
       this.sch = ti.schema();
       String filename = ti.fileName();
+      // read the whole chunk with one request; the record pages
+      // then find their blocks already pinned in the pool
+      tx.pinRange(filename, startbnum, endbnum - startbnum + 1);
       for (int i=startbnum; i<=endbnum; i++) {
          Block blk = new Block(filename, i);
          pages.add(new RecordPage(blk, ti, tx));
+         tx.unpin(blk);
       }
       beforeFirst();
    }
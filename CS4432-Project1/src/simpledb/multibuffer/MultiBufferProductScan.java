@@ -3,6 +3,7 @@ package simpledb.multibuffer;
 import simpledb.tx.Transaction;
 import simpledb.record.RecordFile;
 import simpledb.record.TableInfo;
+import simpledb.materialize.TempTable;
 import simpledb.query.*;
 
 /** 
@@ -12,20 +13,24 @@ import simpledb.query.*;
  */
 public class MultiBufferProductScan implements Scan {
    private Scan lhsscan, rhsscan=null, prodscan;
+   private TempTable tt;
    private TableInfo ti;
    private Transaction tx;
    private int chunksize, nextblknum, filesize;
    
    
    /**
-    * Creates the scan class for the product of the LHS scan and a table.
+    * Creates the scan class for the product of the LHS scan and a 
+    * temporary table.
+    * The temporary table is deleted when the scan is closed.
     * @param lhsscan the LHS scan
-    * @param ti the metadata for the RHS table
+    * @param tt the RHS temporary table
     * @param tx the current transaction
     */
-   public MultiBufferProductScan(Scan lhsscan, TableInfo ti, Transaction tx) {
+   public MultiBufferProductScan(Scan lhsscan, TempTable tt, Transaction tx) {
       this.lhsscan = lhsscan;
-      this.ti = ti;
+      this.tt = tt;
+      this.ti = tt.getTableInfo();
       this.tx = tx;
       filesize = tx.size(ti.fileName());
       chunksize = BufferNeeds.bestFactor(filesize);
@@ -59,11 +64,13 @@ public class MultiBufferProductScan implements Scan {
    }
    
    /**
-    * Closes the current scans.
+    * Closes the current scans,
+    * and deletes the RHS temporary table.
     * @see simpledb.query.Scan#close()
     */
    public void close() {
       prodscan.close();
+      tt.close();
    }
    
    /** 
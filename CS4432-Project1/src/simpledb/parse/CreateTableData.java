@@ -9,13 +9,23 @@ import simpledb.record.Schema;
 public class CreateTableData {
    private String tblname;
    private Schema sch;
+   private boolean compressed;
    
    /**
     * Saves the table name and schema.
     */
    public CreateTableData(String tblname, Schema sch) {
+      this(tblname, sch, false);
+   }
+   
+   /**
+    * Saves the table name and schema,
+    * and whether the table is to be stored compressed.
+    */
+   public CreateTableData(String tblname, Schema sch, boolean compressed) {
       this.tblname = tblname;
       this.sch = sch;
+      this.compressed = compressed;
    }
    
    /**
@@ -33,5 +43,13 @@ public class CreateTableData {
    public Schema newSchema() {
       return sch;
    }
+   
+   /**
+    * Returns true if the new table is to be stored compressed.
+    * @return true if the table is compressed
+    */
+   public boolean isCompressed() {
+      return compressed;
+   }
 }
 
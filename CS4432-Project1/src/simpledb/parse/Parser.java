@@ -95,10 +95,32 @@ public class Parser {
          return delete();
       else if (lex.matchKeyword("update"))
          return modify();
+      else if (lex.matchKeyword("set"))
+         return setBuffers();
       else
          return create();
    }
    
+// Method for parsing the administrative set buffers command
+   
+   /**
+    * Parses the statement <i>set buffers = n</i>,
+    * which resizes the buffer pool to n buffers.
+    * The equals sign is optional.
+    * @return the data of the statement
+    */
+   public SetBuffersData setBuffers() {
+      lex.eatKeyword("set");
+      if (!lex.eatId().equals("buffers"))
+         throw new BadSyntaxException();
+      if (lex.matchDelim('='))
+         lex.eatDelim('=');
+      int n = lex.eatIntConstant();
+      if (n <= 0)
+         throw new BadSyntaxException();
+      return new SetBuffersData(n);
+   }
+   
    private Object create() {
       lex.eatKeyword("create");
       if (lex.matchKeyword("table"))
@@ -184,7 +206,14 @@ public class Parser {
       lex.eatDelim('(');
       Schema sch = fieldDefs();
       lex.eatDelim(')');
-      return new CreateTableData(tblname, sch);
+      // "compressed" is a keyword only here, so that it can still name a table or field
+      boolean compressed = false;
+      if (lex.matchId()) {
+         if (!lex.eatId().equals("compressed"))
+            throw new BadSyntaxException();
+         compressed = true;
+      }
+      return new CreateTableData(tblname, sch, compressed);
    }
    
    private Schema fieldDefs() {
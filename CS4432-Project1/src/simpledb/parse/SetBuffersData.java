@@ -0,0 +1,24 @@
+package simpledb.parse;
+
+/**
+ * Data for the administrative <i>set buffers</i> statement,
+ * which resizes the buffer pool.
+ */
+public class SetBuffersData {
+   private int numbuffers;
+   
+   /**
+    * Saves the desired number of buffers.
+    */
+   public SetBuffersData(int numbuffers) {
+      this.numbuffers = numbuffers;
+   }
+   
+   /**
+    * Returns the desired number of buffers.
+    * @return the desired number of buffers
+    */
+   public int numBuffers() {
+      return numbuffers;
+   }
+}
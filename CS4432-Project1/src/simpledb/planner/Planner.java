@@ -1,5 +1,6 @@
 package simpledb.planner;
 
+import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 import simpledb.parse.*;
 import simpledb.query.*;
@@ -35,6 +36,9 @@ public class Planner {
     * The method dispatches to the appropriate method of the
     * supplied update planner,
     * depending on what the parser returns.
+    * The administrative statement <i>set buffers = n</i>
+    * resizes the buffer pool instead, and returns its new size;
+    * it is not part of the transaction.
     * @param cmd the SQL update string
     * @param tx the transaction
     * @return an integer denoting the number of affected records
@@ -54,6 +58,8 @@ public class Planner {
          return uplanner.executeCreateView((CreateViewData)obj, tx);
       else if (obj instanceof CreateIndexData)
          return uplanner.executeCreateIndex((CreateIndexData)obj, tx);
+      else if (obj instanceof SetBuffersData)
+         return SimpleDB.bufferMgr().resize(((SetBuffersData)obj).numBuffers());
       else
          return 0;
    }
@@ -6,6 +6,7 @@ package simpledb.query;
  */
 public class StringConstant implements Constant {
    private String val;
+   private byte[] bytes;
    
    /**
     * Create a constant by wrapping the specified string.
@@ -23,6 +24,19 @@ public class StringConstant implements Constant {
       return val;
    }
    
+   /**
+    * Returns the string encoded in the default charset,
+    * which is how strings are stored in a page.
+    * The encoding is computed once and then reused,
+    * so the returned array must not be modified.
+    * @return the encoded string
+    */
+   public byte[] asBytes() {
+      if (bytes == null)
+         bytes = val.getBytes();
+      return bytes;
+   }
+   
    public boolean equals(Object obj) {
       StringConstant sc = (StringConstant) obj;
       return sc != null && val.equals(sc.val);
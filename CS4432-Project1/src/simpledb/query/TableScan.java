@@ -67,6 +67,22 @@ public class TableScan implements UpdateScan {
       return sch.hasField(fldname);
    }
    
+   /**
+    * Returns true if the specified field of the current record
+    * has the specified value.
+    * String fields are compared in place,
+    * without creating a Constant for the field's value.
+    * @param fldname the name of the field
+    * @param val the value to compare with
+    * @return true if the field's value equals val
+    */
+   public boolean matches(String fldname, Constant val) {
+      if (sch.type(fldname) != INTEGER && val instanceof StringConstant)
+         return rf.compareString(fldname, ((StringConstant)val).asBytes()) == 0;
+      else
+         return getVal(fldname).equals(val);
+   }
+   
    // UpdateScan methods
    
    /**
@@ -112,6 +112,13 @@ public class Term {
     * @return true if both expressions have the same value in the scan
     */
    public boolean isSatisfied(Scan s) {
+      if (s instanceof TableScan) {
+         TableScan ts = (TableScan) s;
+         if (lhs.isFieldName() && rhs.isConstant())
+            return ts.matches(lhs.asFieldName(), rhs.asConstant());
+         if (rhs.isFieldName() && lhs.isConstant())
+            return ts.matches(rhs.asFieldName(), lhs.asConstant());
+      }
       Constant lhsval = lhs.evaluate(s);
       Constant rhsval = rhs.evaluate(s);
       return rhsval.equals(lhsval);
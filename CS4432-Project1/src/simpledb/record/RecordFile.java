@@ -1,20 +1,41 @@
 package simpledb.record;
 
+import simpledb.server.SimpleDB;
 import simpledb.file.Block;
+import simpledb.buffer.BufferRing;
 import simpledb.tx.Transaction;
 
 /**
  * Manages a file of records.
  * There are methods for iterating through the records
  * and accessing their contents.
+ * <p>
+ * A temporary table, or a table with more blocks than a quarter
+ * of the buffers of its sub-pool, is accessed in bulk: moving through it
+ * sequentially and appending to it recycle a {@link BufferRing}
+ * of the record file's own, so that a large scan does not replace the
+ * rest of the buffer pool.
+ * Moving through the file sequentially reads the following blocks
+ * into the buffer pool with a single request every {@link #READ_AHEAD} blocks,
+ * unless the buffer manager is itself reading ahead of the scan
+ * (see {@link simpledb.buffer.BufferMgr#setReadAhead(int)}).
+ * Positioning at a particular record uses the pool as usual.
  * @author Edward Sciore
  */
 public class RecordFile {
+   /**
+    * The number of blocks that a sequential scan
+    * asks to have read ahead at a time.
+    */
+   public static final int READ_AHEAD = 8;
+   
    private TableInfo ti;
    private Transaction tx;
    private String filename;
    private RecordPage rp;
    private int currentblknum;
+   private int readahead = 0; // blocks before this one have been read ahead
+   private BufferRing ring; // the ring used for bulk access, or null
    
    /**
     * Constructs an object to manage a file of records.
@@ -26,9 +47,12 @@ public class RecordFile {
       this.ti = ti;
       this.tx = tx;
       filename = ti.fileName();
-      if (tx.size(filename) == 0)
+      int size = tx.size(filename);
+      if (filename.startsWith("temp") || size > SimpleDB.bufferMgr().poolSize(filename) / 4)
+         ring = new BufferRing();
+      if (size == 0)
          appendBlock();
-      moveTo(0);
+      moveTo(0, ring);
    }
    
    /**
@@ -43,7 +67,8 @@ public class RecordFile {
     * will wind up at the first record. 
     */
    public void beforeFirst() {
-      moveTo(0);
+      readahead = 0;
+      moveTo(0, ring);
    }
    
    /**
@@ -57,7 +82,8 @@ public class RecordFile {
             return true;
          if (atLastBlock())
             return false;
-         moveTo(currentblknum + 1);
+         readAhead(currentblknum + 1);
+         moveTo(currentblknum + 1, ring);
       }
    }
    
@@ -81,6 +107,18 @@ public class RecordFile {
       return rp.getString(fldname);
    }
    
+   /**
+    * Compares the string value of the specified field
+    * in the current record with the specified encoded string.
+    * @param fldname the name of the field
+    * @param key the encoded string to compare with
+    * @return a negative integer, zero, or a positive integer as the
+    * field value is less than, equal to, or greater than the key
+    */
+   public int compareString(String fldname, byte[] key) {
+      return rp.compareString(fldname, key);
+   }
+   
    /**
     * Sets the value of the specified field 
     * in the current record.
@@ -122,7 +160,7 @@ public class RecordFile {
       while (!rp.insert()) {
          if (atLastBlock())
             appendBlock();
-         moveTo(currentblknum + 1);
+         moveTo(currentblknum + 1, ring);
       }
    }
    
@@ -132,7 +170,7 @@ public class RecordFile {
     * @param rid a record identifier
     */
    public void moveToRid(RID rid) {
-      moveTo(rid.blockNumber());
+      moveTo(rid.blockNumber(), null);
       rp.moveToId(rid.id());
    }
    
@@ -145,12 +183,28 @@ public class RecordFile {
       return new RID(currentblknum, id);
    }
    
-   private void moveTo(int b) {
+   private void moveTo(int b, BufferRing ring) {
       if (rp != null)
          rp.close();
       currentblknum = b;
       Block blk = new Block(filename, currentblknum);
-      rp = new RecordPage(blk, ti, tx);
+      rp = new RecordPage(blk, ti, tx, ring);
+   }
+   
+   /**
+    * Called when the scan moves sequentially to the specified block.
+    * Every READ_AHEAD blocks, the following blocks are read
+    * into the buffer pool with a single request,
+    * so that the scan does not issue one read per block.
+    * Nothing is read if the buffer manager is reading ahead of the scan.
+    * @param b the block the scan is moving to
+    */
+   private void readAhead(int b) {
+      if (b < readahead || SimpleDB.bufferMgr().readsAhead())
+         return;
+      int count = Math.min(READ_AHEAD, tx.size(filename) - b);
+      tx.prefetch(filename, b, count, ring);
+      readahead = b + count;
    }
    
    private boolean atLastBlock() {
@@ -159,7 +213,7 @@ public class RecordFile {
    
    private void appendBlock() {
       RecordFormatter fmtr = new RecordFormatter(ti);
-      tx.append(filename, fmtr);
+      tx.append(filename, fmtr, ring);
    }
    
    // Need a getter to set the thing bro
@@ -2,6 +2,7 @@ package simpledb.record;
 
 import static simpledb.file.Page.*;
 import simpledb.file.Block;
+import simpledb.buffer.BufferRing;
 import simpledb.tx.Transaction;
 
 /**
@@ -24,11 +25,23 @@ public class RecordPage {
      * @param tx the transaction performing the operations
      */
    public RecordPage(Block blk, TableInfo ti, Transaction tx) {
+      this(blk, ti, tx, null);
+   }
+   
+   /** Creates the record manager for the specified block,
+     * which is pinned using the buffers of the specified ring.
+     * The current record is set to be prior to the first one.
+     * @param blk a reference to the disk block
+     * @param ti the table's metadata
+     * @param tx the transaction performing the operations
+     * @param ring the ring of a bulk scan, or null
+     */
+   public RecordPage(Block blk, TableInfo ti, Transaction tx, BufferRing ring) {
       this.blk = blk;
       this.ti = ti;
       this.tx = tx;
       slotsize = ti.recordLength() + INT_SIZE;
-      tx.pin(blk);
+      tx.pin(blk, ring);
   }
    
    /**
@@ -71,6 +84,19 @@ public class RecordPage {
       return tx.getString(blk, position);
    }
    
+   /**
+    * Compares the string value stored for the specified field
+    * of the current record with the specified encoded string.
+    * @param fldname the name of the field.
+    * @param key the encoded string to compare with
+    * @return a negative integer, zero, or a positive integer as the
+    * stored string is less than, equal to, or greater than the key
+    */
+   public int compareString(String fldname, byte[] key) {
+      int position = fieldpos(fldname);
+      return tx.compareString(blk, position, key);
+   }
+   
    /**
     * Stores an integer at the specified field
     * of the current record.
@@ -1,6 +1,7 @@
 package simpledb.server;
 
 import simpledb.file.FileMgr;
+import simpledb.file.Page;
 import simpledb.buffer.*;
 import simpledb.tx.Transaction;
 import simpledb.log.LogMgr;
@@ -24,16 +25,42 @@ import simpledb.index.planner.IndexUpdatePlanner;
  */
 public class SimpleDB {
    public static int BUFFER_SIZE = 8;
+   public static int BLOCK_SIZE = Page.DEFAULT_BLOCK_SIZE;
    public static String LOG_FILE = "simpledb.log";
+   public static boolean MAPPED_IO = false;
+   public static boolean GROUP_SYNC = false;
+   public static int EXTENT_SIZE = 1;
+   public static int MAX_OPEN_FILES = 256;
+   public static boolean DIRECT_IO = false;
+   public static int BUFFER_SHARDS = 0;
+   public static double BUFFER_CLEAN_TARGET = 0;
+   public static int READ_AHEAD = 0;
+   public static boolean WARM_RESTART = false;
+   public static int INDEX_BUFFERS = 0;
+   public static int INDEX_POLICY = 0;
+   public static int CATALOG_BUFFERS = 0;
+   public static int CATALOG_POLICY = 0;
+   public static int TEMP_BUFFERS = 0;
+   public static int TEMP_POLICY = 0;
+   public static String BUFFER_TRACE = null;
    
    private static FileMgr     fm;
    private static BufferMgr   bm;
    private static LogMgr      logm;
    private static MetadataMgr mdm;
+   private static boolean saveAtShutdown; // true once the shutdown hook is installed
    
    /**
     * Initializes the system.
     * This method is called during system startup.
+    * The buffer pool's counters are made available through JMX,
+    * as described in {@link BufferPoolMXBean}.
+    * If {@link #WARM_RESTART} is set, the blocks that were in the
+    * buffer pool when the system last shut down are read back
+    * in the background, and the pool's blocks are saved again at shutdown.
+    * If {@link #BUFFER_TRACE} is set, the blocks pinned by the system
+    * are recorded in a trace file of that name in the database directory,
+    * which can be replayed by {@link simpledb.buffer.TraceSimulator}.
     * @param dirname the name of the database directory
     */
    public static void init(String dirname) {
@@ -48,6 +75,11 @@ public class SimpleDB {
       }
       initMetadataMgr(isnew, tx);
       tx.commit();
+      BufferPoolMonitor.register(bm);
+      if (BUFFER_TRACE != null)
+         bm.startTrace(fm.directoryFile(BUFFER_TRACE));
+      if (WARM_RESTART)
+         initWarmRestart();
    }
    
    /**
@@ -57,6 +89,7 @@ public class SimpleDB {
     * @param dirname the name of the database directory
     * @param rpolicy the replacement policy desired during this run of the database
     * Replacement policy accepts 1: simpleDB Default Replacement, 2: LRU Replacement, 3: Clock Replacement (Any other number will use default)
+    * The scan-resistant policies 4: 2Q, 5: LRU-2, and 6: ARC are also accepted.
     * --CS4432-PROJECT1--
     */
    public static void init(String dirname, int rpolicy) {
@@ -71,6 +104,35 @@ public class SimpleDB {
       }
       initMetadataMgr(isnew, tx);
       tx.commit();
+      BufferPoolMonitor.register(bm);
+      if (BUFFER_TRACE != null)
+         bm.startTrace(fm.directoryFile(BUFFER_TRACE));
+      if (WARM_RESTART)
+         initWarmRestart();
+   }
+   
+   /**
+    * Starts reading the blocks saved in the buffer pool's snapshot
+    * back into the pool, and arranges for the pool's
+    * blocks to be saved when the system shuts down.
+    * @see BufferMgr#warmUp()
+    * @see BufferMgr#saveResidency()
+    */
+   private static synchronized void initWarmRestart() {
+      bm.warmUp();
+      if (saveAtShutdown)
+         return;
+      saveAtShutdown = true;
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+         public void run() {
+            try {
+               bm.saveResidency();
+            }
+            catch (RuntimeException e) {
+               // the next start will simply be cold
+            }
+         }
+      });
    }
    
    // The following initialization methods are useful for 
@@ -79,32 +141,78 @@ public class SimpleDB {
    
    /**
     * Initializes only the file manager.
+    * If the database is new, it is created with a block size of
+    * {@link #BLOCK_SIZE} bytes.
+    * Block reads are served from memory-mapped files
+    * if {@link #MAPPED_IO} is set, and data files are forced
+    * only at commit and checkpoint if {@link #GROUP_SYNC} is set.
+    * Files grow by {@link #EXTENT_SIZE} blocks at a time, and
+    * at most {@link #MAX_OPEN_FILES} files are kept open.
+    * Table and index files bypass the operating system's cache
+    * if {@link #DIRECT_IO} is set.
     * @param dirname the name of the database directory
     */
    public static void initFileMgr(String dirname) {
-      fm = new FileMgr(dirname);
+      fm = new FileMgr(dirname, BLOCK_SIZE);
+      fm.setDirectIO(DIRECT_IO);
+      fm.setMappedIO(MAPPED_IO);
+      fm.setGroupSync(GROUP_SYNC);
+      fm.setExtentSize(EXTENT_SIZE);
+      fm.setMaxOpenFiles(MAX_OPEN_FILES);
    }
    
    /**
     * Initializes the file and log managers.
+    * The file manager's page arena reserves room for
+    * all buffer frames and the log page in a single region.
     * @param dirname the name of the database directory
     */
    public static void initFileAndLogMgr(String dirname) {
       initFileMgr(dirname);
+      int frames = BUFFER_SIZE + INDEX_BUFFERS + CATALOG_BUFFERS + TEMP_BUFFERS;
+      fm.arena().reserve(frames + 1); // the buffer frames and the log page
       logm = new LogMgr(LOG_FILE);
    }
    
    /**
     * Initializes the file, log, and buffer managers.
+    * The buffer pool starts with {@link #BUFFER_SIZE} buffers
+    * (see {@link BufferMgr#resize(int)} for changing its size later),
+    * partitioned into {@link #BUFFER_SHARDS} shards
+    * (or an automatically chosen number of shards, if the value is 0).
+    * Index pages, catalog pages, and temporary table pages get sub-pools
+    * of {@link #INDEX_BUFFERS}, {@link #CATALOG_BUFFERS}, and {@link #TEMP_BUFFERS}
+    * buffers of their own (or share the main pool, if the value is 0),
+    * using the policies {@link #INDEX_POLICY}, {@link #CATALOG_POLICY},
+    * and {@link #TEMP_POLICY} (or the main pool's policy, if the value is 0).
+    * A background writer keeps {@link #BUFFER_CLEAN_TARGET} of the
+    * unpinned buffers clean (no writer is started if the value is 0),
+    * and up to {@link #READ_AHEAD} blocks are read asynchronously ahead of
+    * a sequential scan (if the value is 0, a table scan instead reads
+    * its next {@link simpledb.record.RecordFile#READ_AHEAD} blocks
+    * itself, with a single request).
     * @param dirname the name of the database directory
     * --CS4432-PROJECT1--
     * @param rpolicy Replacement policy being used.
     * 1 - Default, 2 - LRU Replacement, 3 - Clock Replacement
     * --CS4432-PROJECT1--
+    * 4 - 2Q, 5 - LRU-2, 6 - ARC
     */
    public static void initFileLogAndBufferMgr(String dirname, int rpolicy) {
       initFileAndLogMgr(dirname);
-      bm = new BufferMgr(BUFFER_SIZE, rpolicy);
+      int[] sizes = new int[4];
+      int[] policies = new int[4];
+      sizes[BufferMgr.INDEX] = INDEX_BUFFERS;
+      policies[BufferMgr.INDEX] = INDEX_POLICY;
+      sizes[BufferMgr.CATALOG] = CATALOG_BUFFERS;
+      policies[BufferMgr.CATALOG] = CATALOG_POLICY;
+      sizes[BufferMgr.TEMP] = TEMP_BUFFERS;
+      policies[BufferMgr.TEMP] = TEMP_POLICY;
+      bm = new BufferMgr(BUFFER_SIZE, rpolicy, BUFFER_SHARDS, sizes, policies);
+      if (BUFFER_CLEAN_TARGET > 0)
+         bm.setCleanTarget(BUFFER_CLEAN_TARGET);
+      if (READ_AHEAD > 0)
+         bm.setReadAhead(READ_AHEAD);
    }
    
    /**
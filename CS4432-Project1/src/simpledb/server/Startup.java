@@ -9,10 +9,17 @@ public class Startup {
 
 	  // CS4432-Project1: Also allows for a second integer argument 
 	  // that dictates which replacement policy to use
-	  // 1 - Default (or any other number that isnt 2 or 3)
+	  // 1 - Default (or any other number that isnt 2 to 6)
 	  // 2 - LRU
 	  // 3 - Clock
-	  if (args.length == 2) {
+	  // 4 - 2Q
+	  // 5 - LRU-2
+	  // 6 - ARC
+	  // A third integer argument gives the block size
+	  // used if the database is new (e.g. 4096)
+	  if (args.length == 3)
+		  SimpleDB.BLOCK_SIZE = Integer.parseInt(args[2]);
+	  if (args.length >= 2) {
 		  SimpleDB.init(args[0], Integer.parseInt(args[1]));
 	  }
 	  else {
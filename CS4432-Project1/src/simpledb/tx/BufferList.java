@@ -28,22 +28,40 @@ class BufferList {
    /**
     * Pins the block and keeps track of the buffer internally.
     * @param blk a reference to the disk block
+    * @param ring the ring of the calling scan, or null
     */
-   void pin(Block blk) {
-      Buffer buff = bufferMgr.pin(blk);
+   void pin(Block blk, BufferRing ring) {
+      Buffer buff = bufferMgr.pin(blk, ring);
       buffers.put(blk, buff);
       pins.add(blk);
    }
    
+   /**
+    * Pins a range of consecutive blocks of the specified file
+    * and keeps track of their buffers internally.
+    * @param filename the name of the file
+    * @param start the number of the first block
+    * @param count the number of blocks
+    */
+   void pinRange(String filename, int start, int count) {
+      Buffer[] buffs = bufferMgr.pinRange(filename, start, count);
+      for (Buffer buff : buffs) {
+         Block blk = buff.block();
+         buffers.put(blk, buff);
+         pins.add(blk);
+      }
+   }
+   
    /**
     * Appends a new block to the specified file
     * and pins it.
     * @param filename the name of the file
     * @param fmtr the formatter used to initialize the new page
+    * @param ring the ring of the calling scan, or null
     * @return a reference to the newly-created block
     */
-   Block pinNew(String filename, PageFormatter fmtr) {
-      Buffer buff = bufferMgr.pinNew(filename, fmtr);
+   Block pinNew(String filename, PageFormatter fmtr, BufferRing ring) {
+      Buffer buff = bufferMgr.pinNew(filename, fmtr, ring);
       Block blk = buff.block();
       buffers.put(blk, buff);
       pins.add(blk);
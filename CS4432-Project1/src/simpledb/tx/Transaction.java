@@ -84,7 +84,47 @@ public class Transaction {
     * @param blk a reference to the disk block
     */
    public void pin(Block blk) {
-      myBuffers.pin(blk);
+      myBuffers.pin(blk, null);
+   }
+   
+   /**
+    * Pins the specified block on behalf of a bulk scan,
+    * which recycles the buffers of the specified ring
+    * instead of replacing other buffers of the pool.
+    * @see simpledb.buffer.BufferRing
+    * @param blk a reference to the disk block
+    * @param ring the scan's ring, or null
+    */
+   public void pin(Block blk, BufferRing ring) {
+      myBuffers.pin(blk, ring);
+   }
+   
+   /**
+    * Pins a range of consecutive blocks of the specified file.
+    * The blocks that are not already in the buffer pool
+    * are read with as few I/O requests as possible.
+    * Each block must later be unpinned individually.
+    * @param filename the name of the file
+    * @param start the number of the first block
+    * @param count the number of blocks
+    */
+   public void pinRange(String filename, int start, int count) {
+      myBuffers.pinRange(filename, start, count);
+   }
+   
+   /**
+    * Asks the buffer manager to read a range of consecutive blocks
+    * of the specified file into the buffer pool, without pinning them,
+    * on behalf of a scan that recycles the buffers of the specified ring.
+    * The request is only a hint, and may be ignored if
+    * the buffer pool is busy.
+    * @param filename the name of the file
+    * @param start the number of the first block
+    * @param count the number of blocks
+    * @param ring the scan's ring, or null
+    */
+   public void prefetch(String filename, int start, int count, BufferRing ring) {
+      SimpleDB.bufferMgr().prefetch(filename, start, count, ring);
    }
    
    /**
@@ -127,6 +167,23 @@ public class Transaction {
       return buff.getString(offset);
    }
    
+   /**
+    * Compares the string value stored at the specified offset
+    * of the specified block with the specified encoded string,
+    * without extracting the string from the buffer.
+    * The method first obtains an SLock on the block.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @param key the encoded string to compare with
+    * @return a negative integer, zero, or a positive integer as the
+    * stored string is less than, equal to, or greater than the key
+    */
+   public int compareString(Block blk, int offset, byte[] key) {
+      concurMgr.sLock(blk);
+      Buffer buff = myBuffers.getBuffer(blk);
+      return buff.compareString(offset, key);
+   }
+   
    /**
     * Stores an integer at the specified offset 
     * of the specified block.
@@ -167,6 +224,16 @@ public class Transaction {
       buff.setString(offset, val, txnum, lsn);
    }
    
+   /**
+    * Makes the specified new file compressed.
+    * The change is undone if the transaction rolls back.
+    * @see simpledb.file.FileMgr#setCompressed(String, boolean)
+    * @param filename the name of the file
+    */
+   public void setCompressed(String filename) {
+      recoveryMgr.setCompressed(filename);
+   }
+   
    /**
     * Returns the number of blocks in the specified file.
     * This method first obtains an SLock on the 
@@ -191,9 +258,21 @@ public class Transaction {
     * @return a reference to the newly-created disk block
     */
    public Block append(String filename, PageFormatter fmtr) {
+      return append(filename, fmtr, null);
+   }
+   
+   /**
+    * Appends a new block to the end of the specified file
+    * on behalf of a bulk scan, using the buffers of the specified ring.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the new page
+    * @param ring the scan's ring, or null
+    * @return a reference to the newly-created disk block
+    */
+   public Block append(String filename, PageFormatter fmtr, BufferRing ring) {
       Block dummyblk = new Block(filename, END_OF_FILE);
       concurMgr.xLock(dummyblk);
-      Block blk = myBuffers.pinNew(filename, fmtr);
+      Block blk = myBuffers.pinNew(filename, fmtr, ring);
       unpin(blk);
       return blk;
    }
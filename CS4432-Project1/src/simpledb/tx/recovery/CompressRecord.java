@@ -0,0 +1,67 @@
+package simpledb.tx.recovery;
+
+import simpledb.log.BasicLogRecord;
+import simpledb.server.SimpleDB;
+
+/**
+ * The COMPRESS log record, written when a transaction
+ * makes a new file compressed.
+ */
+class CompressRecord implements LogRecord {
+   private int txnum;
+   private String filename;
+
+   /**
+    * Creates a new compress log record.
+    * @param txnum the ID of the specified transaction
+    * @param filename the name of the file
+    */
+   public CompressRecord(int txnum, String filename) {
+      this.txnum = txnum;
+      this.filename = filename;
+   }
+
+   /**
+    * Creates a log record by reading two other values from the log.
+    * @param rec the basic log record
+    */
+   public CompressRecord(BasicLogRecord rec) {
+      txnum = rec.nextInt();
+      filename = rec.nextString();
+   }
+
+   /**
+    * Writes a compress record to the log.
+    * This log record contains the COMPRESS operator,
+    * followed by the transaction id and the filename.
+    * @return the LSN of the last log value
+    */
+   public int writeToLog() {
+      Object[] rec = new Object[] {COMPRESS, txnum, filename};
+      return logMgr.append(rec);
+   }
+
+   public int op() {
+      return COMPRESS;
+   }
+
+   public int txNumber() {
+      return txnum;
+   }
+
+   public String toString() {
+      return "<COMPRESS " + txnum + " " + filename + ">";
+   }
+
+   /**
+    * Deletes the file, together with the marker that makes it compressed.
+    * The file was new when the transaction made it compressed,
+    * and so everything that the transaction wrote to it is being undone;
+    * the buffers holding its blocks are discarded rather than written.
+    * @see simpledb.tx.recovery.LogRecord#undo(int)
+    */
+   public void undo(int txnum) {
+      SimpleDB.bufferMgr().discard(filename);
+      SimpleDB.fileMgr().delete(filename);
+   }
+}
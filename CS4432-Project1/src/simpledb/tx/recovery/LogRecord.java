@@ -9,11 +9,12 @@ import simpledb.server.SimpleDB;
  */
 public interface LogRecord {
    /**
-    * The six different types of log record
+    * The seven different types of log record
     */
    static final int CHECKPOINT = 0, START = 1,
       COMMIT = 2, ROLLBACK  = 3,
-      SETINT = 4, SETSTRING = 5;
+      SETINT = 4, SETSTRING = 5,
+      COMPRESS = 6;
    
    static final LogMgr logMgr = SimpleDB.logMgr();
    
@@ -39,7 +40,7 @@ public interface LogRecord {
    /**
     * Undoes the operation encoded by this log record.
     * The only log record types for which this method
-    * does anything interesting are SETINT and SETSTRING.
+    * does anything interesting are SETINT, SETSTRING and COMPRESS.
     * @param txnum the id of the transaction that is performing the undo.
     */
    void undo(int txnum);
@@ -24,9 +24,12 @@ public class RecoveryMgr {
 
    /**
     * Writes a commit record to the log, and flushes it to disk.
+    * The transaction's modified buffers are flushed, and the
+    * database files are forced, before the commit record is written.
     */
    public void commit() {
       SimpleDB.bufferMgr().flushAll(txnum);
+      SimpleDB.fileMgr().forceAll();
       int lsn = new CommitRecord(txnum).writeToLog();
       SimpleDB.logMgr().flush(lsn);
    }
@@ -37,6 +40,7 @@ public class RecoveryMgr {
    public void rollback() {
       doRollback();
       SimpleDB.bufferMgr().flushAll(txnum);
+      SimpleDB.fileMgr().forceAll();
       int lsn = new RollbackRecord(txnum).writeToLog();
       SimpleDB.logMgr().flush(lsn);
    }
@@ -48,6 +52,7 @@ public class RecoveryMgr {
    public void recover() {
       doRecover();
       SimpleDB.bufferMgr().flushAll(txnum);
+      SimpleDB.fileMgr().forceAll();
       int lsn = new CheckpointRecord().writeToLog();
       SimpleDB.logMgr().flush(lsn);
 
@@ -87,6 +92,20 @@ public class RecoveryMgr {
          return new SetStringRecord(txnum, blk, offset, oldval).writeToLog();
    }
 
+   /**
+    * Makes the specified new file compressed, after writing
+    * a compress record to the log and flushing it to disk,
+    * so that the file goes back to being uncompressed
+    * if the transaction is rolled back or does not complete.
+    * @see simpledb.file.FileMgr#setCompressed(String, boolean)
+    * @param filename the name of the file
+    */
+   public void setCompressed(String filename) {
+      int lsn = new CompressRecord(txnum, filename).writeToLog();
+      SimpleDB.logMgr().flush(lsn);
+      SimpleDB.fileMgr().setCompressed(filename, true);
+   }
+
    /**
     * Rolls back the transaction.
     * The method iterates through the log records,
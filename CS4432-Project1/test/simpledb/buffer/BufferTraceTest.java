@@ -0,0 +1,214 @@
+package simpledb.buffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import simpledb.file.Block;
+
+/**
+ * Tests of the encoding of buffer traces, and of their replay
+ * by the {@link TraceSimulator}.
+ * The tests record events whose numbers take one to five bytes,
+ * several files and rings, and every kind of event, and check that
+ * the reader returns them unchanged; that a trace cut short returns
+ * its complete events; and that a replayed trace counts the hits,
+ * misses, and stalls of a pool whose contents can be followed by hand.
+ * <p>
+ * Usage: <code>java simpledb.buffer.BufferTraceTest</code>.
+ * The program ends normally if every test passes, and
+ * throws an AssertionError at the first failure otherwise.
+ */
+public class BufferTraceTest {
+   private static List<BufferRing> rings = new ArrayList<BufferRing>(); // the rings of the current trace, in order of first use
+
+   public static void main(String[] args) throws IOException {
+      roundTrip();
+      truncated();
+      notATrace();
+      replay();
+      stalls();
+      System.out.println("BufferTraceTest: all tests passed");
+   }
+
+   /**
+    * Records a variety of events, and reads them back.
+    */
+   private static void roundTrip() throws IOException {
+      File f = tempFile();
+      BufferRing r1 = new BufferRing(), r2 = new BufferRing();
+      List<String> expected = new ArrayList<String>();
+      rings.clear();
+      BufferTrace trace = new BufferTrace(f);
+      int[] blknums = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE};
+      for (int blknum : blknums) {
+         record(trace, expected, BufferTrace.PIN, new Block("student.tbl", blknum), null);
+         record(trace, expected, BufferTrace.UNPIN, new Block("student.tbl", blknum), null);
+      }
+      record(trace, expected, BufferTrace.NEW, new Block("temp12.tbl", 3), null);
+      record(trace, expected, BufferTrace.PIN, new Block("enroll.tbl", 5), r2);
+      record(trace, expected, BufferTrace.PIN, new Block("enroll.tbl", 6), r1);
+      record(trace, expected, BufferTrace.PIN, new Block("enroll.tbl", 7), r2);
+      record(trace, expected, BufferTrace.UNPIN, new Block("enroll.tbl", 5), null);
+      record(trace, expected, BufferTrace.PIN, new Block("\u00e9l\u00e8ve.tbl", 2), null);
+      trace.discard("temp12.tbl");
+      expected.add(event(BufferTrace.DISCARD, "temp12.tbl", -1, -1));
+      check(trace.events() == expected.size(), "the trace counted " + trace.events() + " events");
+      trace.close();
+      trace.record(BufferTrace.PIN, new Block("student.tbl", 0), null);
+      trace.close();
+
+      List<String> actual = readAll(f);
+      check(actual.equals(expected), "the trace read back as " + actual + " instead of " + expected);
+      f.delete();
+   }
+
+   /**
+    * Cuts a trace short at every byte, and checks that the reader
+    * returns exactly the events that were complete.
+    */
+   private static void truncated() throws IOException {
+      File f = tempFile();
+      BufferTrace trace = new BufferTrace(f);
+      List<String> expected = new ArrayList<String>();
+      rings.clear();
+      List<Integer> ends = new ArrayList<Integer>();
+      BufferRing ring = new BufferRing();
+      for (int i=0; i<6; i++) {
+         String filename = (i % 2 == 0) ? "a.tbl" : "file" + i + ".tbl";
+         record(trace, expected, BufferTrace.PIN, new Block(filename, 1000 * i), (i % 3 == 0) ? ring : null);
+      }
+      trace.close();
+      byte[] contents = Files.readAllBytes(f.toPath());
+      for (int len=4; len<=contents.length; len++) {
+         try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(0);
+            raf.write(contents, 0, len);
+         }
+         List<String> actual = readAll(f);
+         check(expected.subList(0, actual.size()).equals(actual),
+               "a trace cut at " + len + " bytes read back as " + actual);
+         if (len == contents.length)
+            check(actual.size() == expected.size(), "the complete trace lost events");
+         ends.add(actual.size());
+      }
+      for (int i=1; i<ends.size(); i++)
+         check(ends.get(i) >= ends.get(i-1), "a longer trace returned fewer events");
+      f.delete();
+   }
+
+   /**
+    * Checks that a file that is not a trace is rejected.
+    */
+   private static void notATrace() throws IOException {
+      File f = tempFile();
+      try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+         raf.writeInt(12345);
+      }
+      try {
+         new BufferTrace.Reader(f).close();
+         throw new AssertionError("a file that is not a trace was accepted");
+      }
+      catch (IOException e) {
+      }
+      f.delete();
+   }
+
+   /**
+    * Replays a recorded trace against a two-buffer LRU pool
+    * and checks its hit ratio.
+    */
+   private static void replay() throws IOException {
+      File f = tempFile();
+      BufferTrace trace = new BufferTrace(f);
+      // block 1 replaces the new block 9, and then 0 and 1 hit;
+      // block 2 replaces block 0, and block 0 then replaces block 2
+      int[] pins = {0, 1, 0, 1, 2, 1, 0, 2};
+      boolean[] hits = {false, false, true, true, false, true, false, false};
+      trace.record(BufferTrace.NEW, new Block("t.tbl", 9), null);
+      trace.record(BufferTrace.UNPIN, new Block("t.tbl", 9), null);
+      for (int blknum : pins) {
+         trace.record(BufferTrace.PIN, new Block("t.tbl", blknum), null);
+         trace.record(BufferTrace.UNPIN, new Block("t.tbl", blknum), null);
+      }
+      trace.discard("t.tbl");
+      trace.close();
+
+      int expectedHits = 0;
+      for (boolean hit : hits)
+         if (hit)
+            expectedHits++;
+      TraceSimulator sim = new TraceSimulator(2, 2);
+      BufferTrace.Reader reader = new BufferTrace.Reader(f);
+      for (int op = reader.next(); op >= 0; op = reader.next())
+         sim.replay(op, reader.block(), reader.fileName(), reader.ring());
+      reader.close();
+      check(Math.abs(sim.hitRatio() - (double) expectedHits / pins.length) < 1e-9,
+            "the replay's hit ratio is " + sim.hitRatio());
+      check(sim.stalls() == 0, "the replay stalled");
+      f.delete();
+   }
+
+   /**
+    * Checks that a pin that finds every buffer pinned is counted as a
+    * stall and a miss, and that its unpin is ignored.
+    */
+   private static void stalls() {
+      TraceSimulator sim = new TraceSimulator(1, 2);
+      Block b0 = new Block("t.tbl", 0), b1 = new Block("t.tbl", 1);
+      sim.replay(BufferTrace.PIN, b0, "t.tbl", -1);
+      sim.replay(BufferTrace.PIN, b1, "t.tbl", -1);
+      sim.replay(BufferTrace.UNPIN, b1, "t.tbl", -1);
+      sim.replay(BufferTrace.PIN, b0, "t.tbl", -1);
+      sim.replay(BufferTrace.UNPIN, b0, "t.tbl", -1);
+      sim.replay(BufferTrace.UNPIN, b0, "t.tbl", -1);
+      sim.replay(BufferTrace.UNPIN, b0, "t.tbl", -1); // unmatched, ignored
+      sim.replay(BufferTrace.PIN, b1, "t.tbl", -1);
+      check(sim.stalls() == 1, "the simulation counted " + sim.stalls() + " stalls");
+      check(Math.abs(sim.hitRatio() - 0.25) < 1e-9, "the simulation's hit ratio is " + sim.hitRatio());
+   }
+
+   private static void record(BufferTrace trace, List<String> expected, int op, Block blk, BufferRing ring) {
+      trace.record(op, blk, ring);
+      int ringId = -1;
+      if (ring != null) {
+         ringId = rings.indexOf(ring);
+         if (ringId < 0) {
+            rings.add(ring);
+            ringId = rings.size() - 1;
+         }
+      }
+      expected.add(event(op, blk.fileName(), blk.number(), ringId));
+   }
+
+   private static List<String> readAll(File f) throws IOException {
+      List<String> events = new ArrayList<String>();
+      BufferTrace.Reader reader = new BufferTrace.Reader(f);
+      for (int op = reader.next(); op >= 0; op = reader.next()) {
+         Block blk = reader.block();
+         check((blk == null) == (op == BufferTrace.DISCARD), "the block of event " + op + " is wrong");
+         check(blk == null || blk.fileName().equals(reader.fileName()), "the file of event " + op + " is wrong");
+         events.add(event(op, reader.fileName(), (blk == null) ? -1 : blk.number(), reader.ring()));
+      }
+      reader.close();
+      return events;
+   }
+
+   private static String event(int op, String filename, int blknum, int ring) {
+      return op + ":" + filename + ":" + blknum + ":" + ring;
+   }
+
+   private static File tempFile() throws IOException {
+      File f = File.createTempFile("buffer", ".trace");
+      f.deleteOnExit();
+      return f;
+   }
+
+   private static void check(boolean condition, String message) {
+      if (!condition)
+         throw new AssertionError(message);
+   }
+}
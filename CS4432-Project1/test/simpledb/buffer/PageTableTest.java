@@ -0,0 +1,114 @@
+package simpledb.buffer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests of the {@link PageTable}, in particular of removal,
+ * which shifts back the entries that probed past the removed one.
+ * The tests use small tables, so that the probe sequences are long,
+ * overlap, and wrap around the end of the arrays.
+ * <p>
+ * Usage: <code>java simpledb.buffer.PageTableTest</code>.
+ * The program ends normally if every test passes, and
+ * throws an AssertionError at the first failure otherwise.
+ */
+public class PageTableTest {
+   public static void main(String[] args) {
+      fillAndEmpty();
+      removeMissing();
+      randomOperations();
+      System.out.println("PageTableTest: all tests passed");
+   }
+
+   /**
+    * Fills a table, removes its entries in several orders,
+    * and checks the remaining entries after each removal.
+    */
+   private static void fillAndEmpty() {
+      int n = 8;
+      for (int order=0; order<3; order++) {
+         PageTable table = new PageTable(n);
+         for (int i=0; i<n; i++)
+            table.put(key(i), i);
+         for (int k=0; k<n; k++) {
+            int i = (order == 0) ? k : (order == 1) ? n-1-k : (k * 3) % n;
+            table.remove(key(i));
+            check(table.get(key(i)) == -1, "removed entry " + i + " is still found");
+            for (int j=0; j<n; j++)
+               if (!removed(j, k, order, n))
+                  check(table.get(key(j)) == j, "entry " + j + " lost after removing " + i);
+         }
+      }
+   }
+
+   /**
+    * Checks that removing a block that is not in the table,
+    * or removing one twice, changes nothing.
+    */
+   private static void removeMissing() {
+      PageTable table = new PageTable(4);
+      for (int i=0; i<4; i++)
+         table.put(key(i), i);
+      table.remove(key(100));
+      table.remove(key(2));
+      table.remove(key(2));
+      for (int i=0; i<4; i++)
+         check(table.get(key(i)) == ((i == 2) ? -1 : i), "entry " + i + " wrong after removing missing keys");
+      table.put(key(2), 7);
+      check(table.get(key(2)) == 7, "entry 2 not found after putting it back");
+   }
+
+   /**
+    * Applies random puts and removes to a table whose pool is kept
+    * full most of the time, and compares every lookup with a map.
+    */
+   private static void randomOperations() {
+      Random rand = new Random(4432);
+      int n = 8;
+      int keys = 64;
+      PageTable table = new PageTable(n);
+      Map<Long,Integer> expected = new HashMap<Long,Integer>();
+      for (int step=0; step<200000; step++) {
+         long k = key(rand.nextInt(keys));
+         if (expected.containsKey(k) || expected.size() == n) {
+            long victim = expected.containsKey(k) ? k : expected.keySet().iterator().next();
+            table.remove(victim);
+            expected.remove(victim);
+         }
+         else {
+            int position = rand.nextInt(n);
+            table.put(k, position);
+            expected.put(k, position);
+         }
+         for (int i=0; i<keys; i++) {
+            Integer pos = expected.get(key(i));
+            check(table.get(key(i)) == ((pos == null) ? -1 : pos),
+                  "lookup of key " + i + " disagrees with the map at step " + step);
+         }
+      }
+   }
+
+   /**
+    * Returns the id of a block of one of a few files,
+    * in the form returned by {@link simpledb.file.Block#id()}.
+    */
+   private static long key(int i) {
+      return ((long) (i % 3) << 32) | (i / 3);
+   }
+
+   private static boolean removed(int j, int k, int order, int n) {
+      for (int m=0; m<=k; m++) {
+         int i = (order == 0) ? m : (order == 1) ? n-1-m : (m * 3) % n;
+         if (i == j)
+            return true;
+      }
+      return false;
+   }
+
+   private static void check(boolean condition, String message) {
+      if (!condition)
+         throw new AssertionError(message);
+   }
+}
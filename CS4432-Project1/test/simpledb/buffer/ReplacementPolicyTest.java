@@ -0,0 +1,234 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+
+/**
+ * Tests of the victims chosen by the 2Q, LRU-2, and ARC policies.
+ * Each test drives a small simulated pool (see {@link TraceSimulator})
+ * through a short sequence of pins and unpins, chosen so that the
+ * policy's bookkeeping can be followed by hand, and checks which
+ * blocks are still in the pool afterwards.
+ * <p>
+ * Usage: <code>java simpledb.buffer.ReplacementPolicyTest</code>.
+ * The program ends normally if every test passes, and
+ * throws an AssertionError at the first failure otherwise.
+ */
+public class ReplacementPolicyTest {
+   private static final int TWO_Q = 4, LRU_2 = 5, ARC = 6;
+
+   public static void main(String[] args) {
+      twoQueueScan();
+      twoQueueFifo();
+      twoQueuePinned();
+      lru2ReferencedOnce();
+      lru2History();
+      arcScan();
+      arcAdapts();
+      for (int rpolicy : new int[] {TWO_Q, LRU_2, ARC}) {
+         allPinned(rpolicy);
+         discard(rpolicy);
+      }
+      System.out.println("ReplacementPolicyTest: all tests passed");
+   }
+
+   /**
+    * A block evicted from A1in and requested again moves to Am,
+    * where a scan of new blocks does not displace it.
+    */
+   private static void twoQueueScan() {
+      BasicBufferMgr pool = new BasicBufferMgr(8, TWO_Q, 0, true);
+      for (int i=0; i<=8; i++)
+         touch(pool, i);            // evicts block 0 into A1out
+      check(!pool.contains(blk(0)), "2Q: block 0 was not evicted first");
+      touch(pool, 0);               // block 0 goes into Am
+      for (int i=100; i<120; i++)
+         touch(pool, i);
+      check(pool.contains(blk(0)), "2Q: a scan displaced a block of Am");
+      check(!pool.contains(blk(2)), "2Q: a block of A1in survived a scan");
+      check(pool.contains(blk(119)), "2Q: the last block of the scan is missing");
+   }
+
+   /**
+    * A1in is managed FIFO: re-referencing a block there
+    * does not delay its eviction.
+    */
+   private static void twoQueueFifo() {
+      BasicBufferMgr pool = new BasicBufferMgr(8, TWO_Q, 0, true);
+      for (int i=0; i<8; i++)
+         touch(pool, i);
+      touch(pool, 0);
+      touch(pool, 0);
+      touch(pool, 8);
+      check(!pool.contains(blk(0)), "2Q: a re-reference in A1in delayed the block's eviction");
+      check(pool.contains(blk(1)), "2Q: the second block of A1in was evicted before the first");
+   }
+
+   /**
+    * When every buffer of A1in is pinned, the victim comes from Am.
+    */
+   private static void twoQueuePinned() {
+      BasicBufferMgr pool = new BasicBufferMgr(8, TWO_Q, 0, true);
+      for (int i=0; i<=8; i++)
+         touch(pool, i);
+      touch(pool, 0);               // block 0 goes into Am
+      for (int i=2; i<=8; i++)
+         pool.pin(blk(i), null);    // pin every block of A1in
+      check(pool.pin(blk(50), null) != null, "2Q: no buffer was available");
+      check(!pool.contains(blk(0)), "2Q: the victim was not taken from Am");
+   }
+
+   /**
+    * Blocks referenced once are evicted before blocks referenced twice,
+    * and a second pin within the correlated reference period does
+    * not count as a second reference.
+    */
+   private static void lru2ReferencedOnce() {
+      BasicBufferMgr pool = new BasicBufferMgr(4, LRU_2, 0, true); // the period is one pin
+      touch(pool, 0);
+      touch(pool, 0);               // correlated with the first pin
+      touch(pool, 1);
+      touch(pool, 2);
+      touch(pool, 1);               // block 1 is referenced twice
+      touch(pool, 3);
+      touch(pool, 4);
+      check(!pool.contains(blk(0)), "LRU-2: a correlated pin protected block 0");
+      check(pool.contains(blk(1)), "LRU-2: a block referenced twice was evicted first");
+      touch(pool, 5);
+      check(!pool.contains(blk(2)), "LRU-2: blocks referenced once were not evicted in order");
+      check(pool.contains(blk(1)), "LRU-2: a block referenced twice was evicted first");
+   }
+
+   /**
+    * Among blocks referenced twice, the one whose second most recent
+    * reference is oldest is the victim; and a block that returns
+    * to the pool keeps its history.
+    */
+   private static void lru2History() {
+      BasicBufferMgr pool = new BasicBufferMgr(2, LRU_2, 0, true);
+      touch(pool, 0);
+      touch(pool, 1);
+      touch(pool, 0);
+      touch(pool, 1);
+      touch(pool, 2);
+      check(!pool.contains(blk(0)), "LRU-2: the oldest second reference was not evicted");
+      check(pool.contains(blk(1)), "LRU-2: the wrong block referenced twice was evicted");
+
+      pool = new BasicBufferMgr(4, LRU_2, 0, true);
+      touch(pool, 0);
+      touch(pool, 1);
+      touch(pool, 2);
+      touch(pool, 3);
+      touch(pool, 4);               // evicts block 0, remembering it
+      touch(pool, 0);               // evicts block 1; block 0 now has two references
+      for (int i=5; i<=8; i++)
+         touch(pool, i);
+      check(pool.contains(blk(0)), "LRU-2: a returning block lost its history");
+      check(!pool.contains(blk(4)) && !pool.contains(blk(5)),
+            "LRU-2: blocks referenced once outlived a block referenced twice");
+   }
+
+   /**
+    * A block referenced twice moves to T2, where a scan
+    * of new blocks does not displace it.
+    */
+   private static void arcScan() {
+      BasicBufferMgr pool = new BasicBufferMgr(4, ARC, 0, true);
+      touch(pool, 0);
+      touch(pool, 0);
+      for (int i=100; i<120; i++)
+         touch(pool, i);
+      check(pool.contains(blk(0)), "ARC: a scan displaced a block of T2");
+      check(pool.contains(blk(119)), "ARC: the last block of the scan is missing");
+   }
+
+   /**
+    * A request for a block of B1 makes T1's target larger,
+    * so that the next victim comes from T2, and a request
+    * for a block of B2 makes it smaller again.
+    */
+   private static void arcAdapts() {
+      BasicBufferMgr pool = new BasicBufferMgr(4, ARC, 0, true);
+      touch(pool, 0);
+      touch(pool, 0);
+      touch(pool, 1);
+      touch(pool, 1);               // T2 holds 0 and 1
+      touch(pool, 2);
+      touch(pool, 3);               // T1 holds 2 and 3
+      touch(pool, 4);               // evicts 2 into B1
+      check(!pool.contains(blk(2)), "ARC: the victim was not the oldest block of T1");
+      touch(pool, 2);               // evicts 3 into B1; the hit in B1 raises the target of T1
+      check(!pool.contains(blk(3)), "ARC: the victim was not the oldest block of T1");
+      touch(pool, 5);
+      check(pool.contains(blk(4)), "ARC: the target of T1 did not grow after a hit in B1");
+      check(!pool.contains(blk(0)), "ARC: the victim was not the oldest block of T2");
+      touch(pool, 0);               // evicts 4 into B1; the hit in B2 lowers the target of T1
+      check(!pool.contains(blk(4)), "ARC: the victim was not the oldest block of T1");
+      touch(pool, 6);
+      check(!pool.contains(blk(5)), "ARC: the target of T1 did not shrink after a hit in B2");
+      check(pool.contains(blk(0)) && pool.contains(blk(1)) && pool.contains(blk(2)),
+            "ARC: a block of T2 was evicted while T1 was over its target");
+   }
+
+   /**
+    * A pool whose buffers are all pinned has no victim,
+    * and a buffer becomes a candidate again when it is unpinned.
+    */
+   private static void allPinned(int rpolicy) {
+      BasicBufferMgr pool = new BasicBufferMgr(4, rpolicy, 0, true);
+      Buffer[] buffs = new Buffer[4];
+      for (int i=0; i<4; i++)
+         buffs[i] = pool.pin(blk(i), null);
+      check(pool.pin(blk(4), null) == null, name(rpolicy) + ": a pinned buffer was replaced");
+      pool.unpin(buffs[2]);
+      check(pool.pin(blk(4), null) == buffs[2], name(rpolicy) + ": the only unpinned buffer was not replaced");
+      check(!pool.contains(blk(2)), name(rpolicy) + ": the replaced block is still in the pool");
+   }
+
+   /**
+    * Buffers whose file is discarded are reused before any other,
+    * and the policy forgets them.
+    */
+   private static void discard(int rpolicy) {
+      BasicBufferMgr pool = new BasicBufferMgr(4, rpolicy, 0, true);
+      touch(pool, 0);
+      touch(pool, 0);
+      touch(pool, 1);
+      touch(pool, new Block("gone", 0));
+      touch(pool, new Block("gone", 1));
+      pool.discard("gone");
+      check(!pool.contains(new Block("gone", 0)), name(rpolicy) + ": a discarded block is still in the pool");
+      touch(pool, 2);
+      touch(pool, 3);
+      check(pool.contains(blk(0)) && pool.contains(blk(1)),
+            name(rpolicy) + ": a block was evicted while discarded buffers were free");
+      for (int i=4; i<20; i++)
+         touch(pool, i);
+      check(pool.contains(blk(19)), name(rpolicy) + ": the pool stopped admitting blocks after a discard");
+   }
+
+   private static Block blk(int blknum) {
+      return new Block("test.tbl", blknum);
+   }
+
+   /**
+    * Pins and unpins a block of the test file.
+    */
+   private static void touch(BasicBufferMgr pool, int blknum) {
+      touch(pool, blk(blknum));
+   }
+
+   private static void touch(BasicBufferMgr pool, Block blk) {
+      Buffer buff = pool.pin(blk, null);
+      check(buff != null, "no buffer was available for " + blk);
+      pool.unpin(buff);
+   }
+
+   private static String name(int rpolicy) {
+      return BufferPoolMonitor.policyName(rpolicy);
+   }
+
+   private static void check(boolean condition, String message) {
+      if (!condition)
+         throw new AssertionError(message);
+   }
+}
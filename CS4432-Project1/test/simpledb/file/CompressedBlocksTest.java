@@ -0,0 +1,205 @@
+package simpledb.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests of the storage layout of compressed files:
+ * that blocks read back as they were written, whether or not
+ * they compress, after the file is reopened and after it is compacted,
+ * and that an image whose checksum does not match, or which was
+ * cut short by a crash, is discarded when the file is opened.
+ * <p>
+ * Usage: <code>java simpledb.file.CompressedBlocksTest</code>.
+ * The program ends normally if every test passes, and
+ * throws an AssertionError at the first failure otherwise.
+ */
+public class CompressedBlocksTest {
+   private static final int BLOCK_SIZE = 400;
+   private static Random rand = new Random(4432);
+
+   public static void main(String[] args) throws IOException {
+      roundTrip();
+      rewriteAndCompact();
+      corruptImage();
+      tornImage();
+      System.out.println("CompressedBlocksTest: all tests passed");
+   }
+
+   /**
+    * Writes compressible and incompressible blocks, leaving a gap,
+    * and reads them back before and after reopening the file.
+    */
+   private static void roundTrip() throws IOException {
+      File f = tempFile();
+      byte[] sparse = sparseBlock(1);
+      byte[] noise = noiseBlock();
+      try (FileChannel fc = open(f)) {
+         CompressedBlocks blocks = new CompressedBlocks(fc, BLOCK_SIZE);
+         check(blocks.size() == 0, "a new file is not empty");
+         write(blocks, fc, 0, sparse);
+         write(blocks, fc, 2, noise);
+         check(blocks.size() == 3, "the file does not include the highest block written");
+         check(fc.size() < 2 * CompressedBlocks.HEADER_SIZE + 2 * BLOCK_SIZE,
+               "the compressible block was not compressed");
+         checkBlock(blocks, fc, 0, sparse);
+         checkBlock(blocks, fc, 1, new byte[BLOCK_SIZE]);
+         checkBlock(blocks, fc, 2, noise);
+         checkBlock(blocks, fc, 5, new byte[BLOCK_SIZE]);
+      }
+      try (FileChannel fc = open(f)) {
+         CompressedBlocks blocks = new CompressedBlocks(fc, BLOCK_SIZE);
+         check(blocks.size() == 3, "the reopened file has the wrong size");
+         checkBlock(blocks, fc, 0, sparse);
+         checkBlock(blocks, fc, 1, new byte[BLOCK_SIZE]);
+         checkBlock(blocks, fc, 2, noise);
+      }
+      f.delete();
+   }
+
+   /**
+    * Rewrites blocks until the file needs compaction, and checks
+    * that the compacted copy holds the latest contents of each block.
+    */
+   private static void rewriteAndCompact() throws IOException {
+      File f = tempFile();
+      File g = tempFile();
+      byte[][] latest = new byte[4][];
+      try (FileChannel fc = open(f); FileChannel dest = open(g)) {
+         CompressedBlocks blocks = new CompressedBlocks(fc, BLOCK_SIZE);
+         for (int version=0; version<5; version++)
+            for (int blknum=0; blknum<4; blknum++) {
+               latest[blknum] = (blknum == 3) ? noiseBlock() : sparseBlock(version * 10 + blknum);
+               write(blocks, fc, blknum, latest[blknum]);
+            }
+         check(blocks.needsCompaction(), "a file of superseded images does not need compaction");
+         for (int blknum=0; blknum<4; blknum++)
+            checkBlock(blocks, fc, blknum, latest[blknum]);
+
+         CompressedBlocks copy = blocks.copyTo(fc, dest);
+         check(!copy.needsCompaction(), "the compacted file still needs compaction");
+         check(dest.size() * 4 < fc.size(), "the compacted file is not smaller");
+         check(copy.size() == 4, "the compacted file has the wrong size");
+         for (int blknum=0; blknum<4; blknum++)
+            checkBlock(copy, dest, blknum, latest[blknum]);
+      }
+      f.delete();
+      g.delete();
+   }
+
+   /**
+    * Corrupts a byte of the last image of a file, and checks that the
+    * image is discarded when the file is reopened, so that its block
+    * reads as it was before that write.
+    */
+   private static void corruptImage() throws IOException {
+      File f = tempFile();
+      byte[] before = sparseBlock(1);
+      byte[] after = sparseBlock(2);
+      long lastImage;
+      try (FileChannel fc = open(f)) {
+         CompressedBlocks blocks = new CompressedBlocks(fc, BLOCK_SIZE);
+         write(blocks, fc, 0, before);
+         write(blocks, fc, 1, sparseBlock(3));
+         lastImage = fc.size();
+         write(blocks, fc, 0, after);
+         checkBlock(blocks, fc, 0, after);
+         ByteBuffer b = ByteBuffer.allocate(1);
+         long pos = lastImage + CompressedBlocks.HEADER_SIZE + 2;
+         fc.read(b, pos);
+         b.put(0, (byte) (b.get(0) ^ 0x10));
+         b.rewind();
+         fc.write(b, pos);
+      }
+      try (FileChannel fc = open(f)) {
+         CompressedBlocks blocks = new CompressedBlocks(fc, BLOCK_SIZE);
+         check(fc.size() == lastImage, "the corrupt image was not truncated");
+         checkBlock(blocks, fc, 0, before);
+         checkBlock(blocks, fc, 1, sparseBlock(3));
+      }
+      f.delete();
+   }
+
+   /**
+    * Cuts the last image of a file short, as a crash during the write
+    * would, and checks that the image is discarded and that the file
+    * can be written again afterwards.
+    */
+   private static void tornImage() throws IOException {
+      File f = tempFile();
+      byte[] first = noiseBlock();
+      long lastImage;
+      try (FileChannel fc = open(f)) {
+         CompressedBlocks blocks = new CompressedBlocks(fc, BLOCK_SIZE);
+         write(blocks, fc, 0, first);
+         lastImage = fc.size();
+         write(blocks, fc, 1, noiseBlock());
+         fc.truncate(lastImage + CompressedBlocks.HEADER_SIZE + BLOCK_SIZE / 2);
+      }
+      byte[] replacement = sparseBlock(5);
+      try (FileChannel fc = open(f)) {
+         CompressedBlocks blocks = new CompressedBlocks(fc, BLOCK_SIZE);
+         check(fc.size() == lastImage, "the torn image was not truncated");
+         check(blocks.size() == 1, "the torn image's block is still in the file");
+         checkBlock(blocks, fc, 0, first);
+         write(blocks, fc, 1, replacement);
+      }
+      try (FileChannel fc = open(f)) {
+         CompressedBlocks blocks = new CompressedBlocks(fc, BLOCK_SIZE);
+         checkBlock(blocks, fc, 0, first);
+         checkBlock(blocks, fc, 1, replacement);
+      }
+      f.delete();
+   }
+
+   /**
+    * Returns the contents of a block that compresses well:
+    * a few records near the start, and zeros after them.
+    */
+   private static byte[] sparseBlock(int seed) {
+      byte[] b = new byte[BLOCK_SIZE];
+      for (int i=0; i<BLOCK_SIZE/4; i++)
+         b[i] = (byte) (seed + i % 7);
+      return b;
+   }
+
+   /**
+    * Returns the contents of a block that does not compress.
+    */
+   private static byte[] noiseBlock() {
+      byte[] b = new byte[BLOCK_SIZE];
+      rand.nextBytes(b);
+      return b;
+   }
+
+   private static void write(CompressedBlocks blocks, FileChannel fc, int blknum, byte[] contents) throws IOException {
+      blocks.write(fc, blknum, ByteBuffer.wrap(contents.clone()));
+   }
+
+   private static void checkBlock(CompressedBlocks blocks, FileChannel fc, int blknum, byte[] expected) throws IOException {
+      ByteBuffer bb = ByteBuffer.allocate(BLOCK_SIZE);
+      Arrays.fill(bb.array(), (byte) 0x55);
+      blocks.read(fc, blknum, bb);
+      check(Arrays.equals(bb.array(), expected), "block " + blknum + " does not read back as written");
+   }
+
+   private static File tempFile() throws IOException {
+      File f = File.createTempFile("compressed", ".tbl");
+      f.deleteOnExit();
+      return f;
+   }
+
+   private static FileChannel open(File f) throws IOException {
+      return FileChannel.open(f.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+   }
+
+   private static void check(boolean condition, String message) {
+      if (!condition)
+         throw new AssertionError(message);
+   }
+}